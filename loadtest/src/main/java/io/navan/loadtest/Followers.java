@@ -0,0 +1,119 @@
+package io.navan.loadtest;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Clients following GET /heroes/changes for the whole run, each holding a connection open and
+ * reading the events it is sent, so the application serves the request mix with that many
+ * connections open.
+ */
+final class Followers {
+
+    // Connections being opened at once, so as not to overflow the server's accept queue
+    static final int OPENING = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final Queue<Flow.Subscription> subscriptions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Open the connections, waiting until each is answered or has failed.
+     */
+    void follow(HttpClient client, Heroes heroes, int connections) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(heroes.url("/heroes/changes"))
+                .header("Accept", "text/event-stream")
+                .build();
+        Semaphore opening = new Semaphore(OPENING);
+        for (int i = 0; i < connections; i++) {
+            opening.acquire();
+            AtomicBoolean answered = new AtomicBoolean();
+            client.sendAsync(request, info -> {
+                answered.set(true);
+                opening.release();
+                if (info.statusCode() == 200) {
+                    opened.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                return HttpResponse.BodySubscribers.fromLineSubscriber(new Events());
+            }).whenComplete((response, failure) -> {
+                if (failure != null && !answered.get()) {
+                    failed.incrementAndGet();
+                    opening.release();
+                }
+            });
+        }
+        opening.acquire(OPENING);
+    }
+
+    /**
+     * Close the connections still open.
+     */
+    void close() {
+        for (Flow.Subscription subscription; (subscription = subscriptions.poll()) != null;) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * @return the connections opened, failed and closed by the application, and the events read
+     */
+    ObjectNode toJson() {
+        ObjectNode json = MAPPER.createObjectNode();
+        json.put("opened", opened.get());
+        json.put("failed", failed.get());
+        json.put("closed", closed.get());
+        json.put("events", events.get());
+        return json;
+    }
+
+    /**
+     * Counts the events on one connection: the lines up to a blank one, if not just comments.
+     */
+    private final class Events implements Flow.Subscriber<String> {
+        private boolean inEvent;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscriptions.add(subscription);
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                if (inEvent) {
+                    events.incrementAndGet();
+                }
+                inEvent = false;
+            } else if (!line.startsWith(":")) {
+                inEvent = true;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete() {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.navan.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The heroes of the application under test: the seeded heroes "Hero 1" to "Hero n", and the
+ * heroes the run has created and not yet deleted.
+ */
+final class Heroes {
+
+    static final int SEED_BATCH = 5000;
+    static final int SEED_CONCURRENCY = 64;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final URI base;
+    private final String run = Long.toString(System.currentTimeMillis() % 1679616, 36);
+    private final AtomicLong names = new AtomicLong();
+    private final ConcurrentLinkedDeque<Long> created = new ConcurrentLinkedDeque<>();
+    private long[] seededIds;
+
+    Heroes(URI base) {
+        this.base = base;
+    }
+
+    URI url(String path) {
+        return base.resolve(path);
+    }
+
+    int seeded() {
+        return seededIds.length;
+    }
+
+    long seededId(int index) {
+        return seededIds[index];
+    }
+
+    static String seededName(int index) {
+        return "Hero " + (index + 1);
+    }
+
+    /**
+     * @return a name no hero has, at most 20 characters as the application requires
+     */
+    String newName() {
+        return "Load " + run + " " + names.incrementAndGet();
+    }
+
+    void created(long id) {
+        created.add(id);
+    }
+
+    Long takeCreated() {
+        return created.pollFirst();
+    }
+
+    static String hero(String name) {
+        return "{\"name\":\"" + name + "\"}";
+    }
+
+    /**
+     * Create the seeded heroes in batches, or one by one where there is no batch endpoint as
+     * in the reactive profile, leaving any that already exist, then find all of their ids in
+     * the hero list.
+     */
+    void seed(HttpClient client, int count) throws IOException, InterruptedException {
+        for (int from = 0; from < count; from += SEED_BATCH) {
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = from; i < Math.min(count, from + SEED_BATCH); i++) {
+                batch.append(i == from ? "" : ",").append(hero(seededName(i)));
+            }
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(url("/heroes/batch"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(batch.append("]").toString()))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 404 || response.statusCode() == 405) {
+                seedOneByOne(client, from, count);
+                break;
+            }
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding failed with " + response.statusCode() + ": " + response.body());
+            }
+        }
+        findSeeded(client, count);
+    }
+
+    private void seedOneByOne(HttpClient client, int from, int count) throws InterruptedException {
+        Semaphore sending = new Semaphore(SEED_CONCURRENCY);
+        AtomicReference<String> failure = new AtomicReference<>();
+        for (int i = from; i < count && failure.get() == null; i++) {
+            sending.acquire();
+            client.sendAsync(HttpRequest.newBuilder(url("/heroes"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(hero(seededName(i))))
+                    .build(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        // 400 is a hero left from an earlier run
+                        if (error != null || (response.statusCode() != 201 && response.statusCode() != 400)) {
+                            failure.compareAndSet(null, error != null ? error.toString()
+                                    : response.statusCode() + ": " + response.body());
+                        }
+                        sending.release();
+                    });
+        }
+        sending.acquire(SEED_CONCURRENCY);
+        if (failure.get() != null) {
+            throw new IllegalStateException("Seeding failed with " + failure.get());
+        }
+    }
+
+    private void findSeeded(HttpClient client, int count) throws IOException, InterruptedException {
+        HttpResponse<String> list = client.send(HttpRequest.newBuilder(url("/heroes"))
+                .header("Accept", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+        Map<String, Long> ids = new HashMap<>();
+        for (JsonNode hero : MAPPER.readTree(list.body())) {
+            ids.put(hero.get("name").asText(), hero.get("id").asLong());
+        }
+        seededIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            Long id = ids.get(seededName(i));
+            if (id == null) {
+                throw new IllegalStateException(seededName(i) + " was not seeded");
+            }
+            seededIds[i] = id;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package io.navan.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Open-loop load test of the heroes API. Requests are sent at the given rate, with Poisson
+ * arrivals, whether or not earlier ones have been answered, as independent clients would
+ * send them. Which request each one is comes from the mix. The random sequence is seeded, so a
+ * run with the same options sends the same requests at the same times.
+ * Without --url, the application jar is started on a free port, and stopped afterwards.
+ * With --connections, that many clients follow GET /heroes/changes throughout, each holding a
+ * connection open, see Followers.
+ *
+ * Options, with their defaults:
+ * --url (start the jar) --jar (the heroes.jar system property) --app-args ""
+ * --heroes 100000 --rate 200 --duration 60s --warmup 10s --seed 1 --max-in-flight 10000 --connections 0
+ * --mix list=2,get=50,search=30,create=6,update=8,delete=4
+ * --baseline baseline.json --save-baseline false
+ */
+public final class LoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<String, String> options;
+    private final Followers followers = new Followers();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("url", "");
+        options.put("jar", System.getProperty("heroes.jar", ""));
+        options.put("app-args", "");
+        options.put("heroes", "100000");
+        options.put("rate", "200");
+        options.put("duration", "60s");
+        options.put("warmup", "10s");
+        options.put("seed", "1");
+        options.put("max-in-flight", "10000");
+        options.put("connections", "0");
+        options.put("mix", "list=2,get=50,search=30,create=6,update=8,delete=4");
+        options.put("baseline", "baseline.json");
+        options.put("save-baseline", "false");
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].replaceFirst("^--", "");
+            if (!options.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", options are " + options.keySet());
+            }
+            boolean flag = name.equals("save-baseline") && (i + 1 == args.length || args[i + 1].startsWith("--"));
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        new LoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        Process application = null;
+        URI url;
+        if (options.get("url").isEmpty()) {
+            int port = freePort();
+            application = start(port);
+            url = URI.create("http://localhost:" + port);
+        } else {
+            url = URI.create(options.get("url"));
+        }
+        try {
+            awaitReady(url, application);
+            Heroes heroes = new Heroes(url);
+            long seeding = System.nanoTime();
+            heroes.seed(client, Integer.parseInt(options.get("heroes")));
+            System.out.printf("Seeded %d heroes in %.1fs%n", heroes.seeded(), (System.nanoTime() - seeding) / 1e9);
+            int connections = Integer.parseInt(options.get("connections"));
+            if (connections > 0) {
+                long opening = System.nanoTime();
+                followers.follow(client, heroes, connections);
+                System.out.printf("Following changes on %s connections in %.1fs%n",
+                        followers.toJson().get("opened"), (System.nanoTime() - opening) / 1e9);
+            }
+
+            Instant started = Instant.now();
+            ObjectNode results = drive(heroes);
+            ObjectNode run = MAPPER.createObjectNode();
+            run.put("started", started.toString());
+            run.putPOJO("options", options);
+            run.setAll(results);
+            run.set("connections", followers.toJson());
+            save(run);
+        } finally {
+            followers.close();
+            if (application != null) {
+                application.destroy();
+                application.waitFor(30, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send requests until the warmup and the measured duration are over, then wait for the
+     * last answers.
+     */
+    private ObjectNode drive(Heroes heroes) throws InterruptedException {
+        Map<Operation, Integer> mix = mix(options.get("mix"));
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        double rate = Double.parseDouble(options.get("rate"));
+        long warmup = duration(options.get("warmup")).toNanos();
+        long measured = duration(options.get("duration")).toNanos();
+        int maxInFlight = Integer.parseInt(options.get("max-in-flight"));
+        Random random = new Random(Long.parseLong(options.get("seed")));
+        Results results = new Results();
+        AtomicInteger inFlight = new AtomicInteger();
+
+        System.out.printf("Sending %.0f req/s for %s after %s of warmup%n", rate, options.get("duration"),
+                options.get("warmup"));
+        long start = System.nanoTime();
+        long measureFrom = start + warmup;
+        long end = measureFrom + measured;
+        double due = start;
+        while (true) {
+            due += -Math.log(1 - random.nextDouble()) / rate * 1e9;
+            long dueAt = (long) due;
+            if (dueAt >= end) {
+                break;
+            }
+            Operation operation = pick(mix, totalWeight, random);
+            HttpRequest request = operation.request(heroes, random);
+            long wait = dueAt - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measuring = dueAt >= measureFrom;
+            if (request == null) {
+                if (measuring) {
+                    results.skipped();
+                }
+                continue;
+            }
+            if (inFlight.get() >= maxInFlight) {
+                if (measuring) {
+                    results.dropped();
+                }
+                continue;
+            }
+            inFlight.incrementAndGet();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        inFlight.decrementAndGet();
+                        boolean error = failure != null || response.statusCode() >= 400;
+                        if (failure == null && operation == Operation.CREATE && response.statusCode() == 201) {
+                            response.headers().firstValue("Location").ifPresent(location ->
+                                    heroes.created(Long.parseLong(location.substring(location.lastIndexOf('/') + 1))));
+                        }
+                        if (measuring) {
+                            results.record(operation, System.nanoTime() - dueAt, error);
+                        }
+                    });
+        }
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        return results.toJson(measured / 1e9);
+    }
+
+    /**
+     * Write the run to build/results, print it against the baseline, and make it the baseline
+     * if asked to.
+     */
+    private void save(ObjectNode run) throws IOException {
+        Path dir = Path.of("build", "results");
+        Files.createDirectories(dir);
+        Path file = dir.resolve("run-" + run.get("started").asText().replace(':', '-') + ".json");
+        MAPPER.writeValue(file.toFile(), run);
+        Files.copy(file, dir.resolve("latest.json"), StandardCopyOption.REPLACE_EXISTING);
+
+        Path baselineFile = Path.of(options.get("baseline"));
+        JsonNode baseline = Files.exists(baselineFile) ? MAPPER.readTree(baselineFile.toFile()) : null;
+        Results.print(run, baseline, System.out);
+        System.out.println("Results in " + file.toAbsolutePath());
+        if (Boolean.parseBoolean(options.get("save-baseline"))) {
+            MAPPER.writeValue(baselineFile.toFile(), run);
+            System.out.println("Saved as the baseline, " + baselineFile.toAbsolutePath());
+        }
+    }
+
+    private Process start(int port) throws IOException {
+        String jar = options.get("jar");
+        if (jar.isEmpty()) {
+            throw new IllegalArgumentException("Give --url of a running application, or --jar to start");
+        }
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"), "-jar", jar,
+                "--server.port=" + port, "--logging.file.name="));
+        for (String arg : options.get("app-args").split(" ")) {
+            if (!arg.isBlank()) {
+                command.add(arg);
+            }
+        }
+        System.out.println("Starting " + String.join(" ", command));
+        Files.createDirectories(Path.of("build"));
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(Path.of("build", "application.log").toFile())
+                .start();
+    }
+
+    private void awaitReady(URI url, Process application) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        HttpRequest ping = HttpRequest.newBuilder(url.resolve("/heroes?limit=1")).build();
+        while (System.nanoTime() < until) {
+            try {
+                if (client.send(ping, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (application != null && !application.isAlive()) {
+                    throw new IllegalStateException("Application exited, see build/application.log");
+                }
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException(url + " did not answer within 2 minutes");
+    }
+
+    private static Map<Operation, Integer> mix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split("=");
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+
+    private static Operation pick(Map<Operation, Integer> mix, int totalWeight, Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> weight : mix.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private static Duration duration(String value) {
+        return Duration.parse("PT" + value.toUpperCase());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.navan.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Random;
+
+/**
+ * The requests the Tour of Heroes client makes, as the load test makes them.
+ * Updates rename a seeded hero to the name it already has, and deletes only take heroes the
+ * run created, so the seeded heroes, and with them the searches and gets, stay the same for
+ * the length of a run.
+ */
+enum Operation {
+
+    /** GET /heroes, the whole list, gzipped as browsers ask for it. */
+    LIST {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            return get(heroes.url("/heroes")).header("Accept-Encoding", "gzip").build();
+        }
+    },
+
+    /** GET /heroes/{id} of a seeded hero. */
+    GET {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            return get(heroes.url("/heroes/" + heroes.seededId(random.nextInt(heroes.seeded())))).build();
+        }
+    },
+
+    /** GET /heroes?name=, searching for 1 to 5 digits of a seeded hero's number. */
+    SEARCH {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            String number = Integer.toString(1 + random.nextInt(heroes.seeded()));
+            String term = "ro " + number.substring(0, 1 + random.nextInt(Math.min(5, number.length())));
+            return get(heroes.url("/heroes?name=" + term.replace(" ", "%20"))).build();
+        }
+    },
+
+    /** POST /heroes of a hero with a name unique to the run. */
+    CREATE {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            return json(heroes.url("/heroes"))
+                    .POST(HttpRequest.BodyPublishers.ofString(Heroes.hero(heroes.newName())))
+                    .build();
+        }
+    },
+
+    /** PUT /heroes/{id} of a seeded hero, with its own name. */
+    UPDATE {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            int index = random.nextInt(heroes.seeded());
+            return json(heroes.url("/heroes/" + heroes.seededId(index)))
+                    .PUT(HttpRequest.BodyPublishers.ofString(Heroes.hero(Heroes.seededName(index))))
+                    .build();
+        }
+    },
+
+    /** DELETE /heroes/{id} of a hero created by the run, none if there is none left. */
+    DELETE {
+        @Override
+        HttpRequest request(Heroes heroes, Random random) {
+            Long id = heroes.takeCreated();
+            return id == null ? null : HttpRequest.newBuilder(heroes.url("/heroes/" + id)).DELETE().build();
+        }
+    };
+
+    /**
+     * @return the next request of this kind, null if there is none to make
+     */
+    abstract HttpRequest request(Heroes heroes, Random random);
+
+    String key() {
+        return name().toLowerCase();
+    }
+
+    private static HttpRequest.Builder get(URI uri) {
+        return HttpRequest.newBuilder(uri).header("Accept", "application/json").GET();
+    }
+
+    private static HttpRequest.Builder json(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json");
+    }
+}
@@ -0,0 +1,124 @@
+package io.navan.loadtest;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Latency histograms and counts per operation. Latency runs from the time a request was due to
+ * be sent, not the time it was, so a server falling behind shows as latency rather than as
+ * the load test slowing down with it.
+ */
+final class Results {
+
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    static final String[] PERCENTILE_KEYS = { "p50", "p90", "p99", "p999" };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    Results() {
+        for (Operation operation : Operation.values()) {
+            // Up to a minute, to 3 significant digits; longer ones are recorded as a minute.
+            latencies.put(operation, new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3));
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    void record(Operation operation, long latencyNanos, boolean error) {
+        Histogram histogram = latencies.get(operation);
+        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), histogram.getHighestTrackableValue()));
+        if (error) {
+            errors.get(operation).incrementAndGet();
+        }
+    }
+
+    /** A delete due with no created hero left to delete. */
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    /** A request not sent because too many were already waiting for answers. */
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * @param seconds The length of the measured part of the run
+     * @return the results as JSON, operation by operation, latencies in milliseconds
+     */
+    ObjectNode toJson(double seconds) {
+        ObjectNode json = MAPPER.createObjectNode();
+        json.put("seconds", seconds);
+        json.put("skipped", skipped.get());
+        json.put("dropped", dropped.get());
+        ObjectNode operations = json.putObject("operations");
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies.get(operation);
+            total += histogram.getTotalCount();
+            ObjectNode result = operations.putObject(operation.key());
+            result.put("count", histogram.getTotalCount());
+            result.put("errors", errors.get(operation).get());
+            result.put("throughput", histogram.getTotalCount() / seconds);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                result.put(PERCENTILE_KEYS[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            result.put("max", histogram.getMaxValue() / 1000.0);
+        }
+        json.put("throughput", total / seconds);
+        return json;
+    }
+
+    /**
+     * Print the results as a table, with the change in throughput and p99 from the baseline
+     * for each operation when there is one.
+     */
+    static void print(JsonNode results, JsonNode baseline, PrintStream out) {
+        out.printf("%-8s %8s %7s %9s %9s %9s %9s %9s %9s%s%n", "", "count", "errors", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", baseline == null ? "" : "   vs baseline");
+        results.get("operations").fields().forEachRemaining(entry -> {
+            JsonNode result = entry.getValue();
+            out.printf("%-8s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f", entry.getKey(),
+                    result.get("count").asLong(), result.get("errors").asLong(),
+                    result.get("throughput").asDouble(), result.get("p50").asDouble(),
+                    result.get("p90").asDouble(), result.get("p99").asDouble(),
+                    result.get("p999").asDouble(), result.get("max").asDouble());
+            JsonNode before = baseline == null ? null : baseline.get("operations").get(entry.getKey());
+            if (before != null) {
+                out.printf("   req/s %s, p99 %s", change(before.get("throughput"), result.get("throughput")),
+                        change(before.get("p99"), result.get("p99")));
+            }
+            out.println();
+        });
+        out.printf("%.1f req/s over %.0fs, %d deletes skipped, %d requests dropped%n",
+                results.get("throughput").asDouble(), results.get("seconds").asDouble(),
+                results.get("skipped").asLong(), results.get("dropped").asLong());
+        JsonNode connections = results.get("connections");
+        if (connections != null && connections.get("opened").asLong() + connections.get("failed").asLong() > 0) {
+            out.printf("%d connections following changes, %d failed to open, %d closed early, %d events%n",
+                    connections.get("opened").asLong(), connections.get("failed").asLong(),
+                    connections.get("closed").asLong(), connections.get("events").asLong());
+        }
+    }
+
+    private static String change(JsonNode before, JsonNode after) {
+        if (before == null || before.asDouble() == 0) {
+            return "n/a";
+        }
+        return String.format("%+.1f%%", (after.asDouble() / before.asDouble() - 1) * 100);
+    }
+}
@@ -0,0 +1,55 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Starts the application, without a web server, over its own embedded H2 database seeded with
+ * the requested number of heroes. Heroes are named "Hero 1", "Hero 2" and so on. Any args
+ * given go to the application as well.
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {}
+
+    static ConfigurableApplicationContext start(int heroes, String... args) {
+        List<String> allArgs = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:bench-" + heroes + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.io.navan=INFO",
+                "--logging.level.org.hibernate=WARN"));
+        allArgs.addAll(List.of(args));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(HeroesBackendApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(allArgs.toArray(new String[0]));
+        context.getBean(JdbcTemplate.class).update(
+                "insert into hero(name) select 'Hero ' || x from system_range(1, ?)", heroes);
+        return context;
+    }
+
+    /**
+     * As {@link #start(int)}, but with the heroes spread over local shards by the sharded
+     * profile, and written through the repository so that they reach the shards.
+     */
+    static ConfigurableApplicationContext startSharded(int heroes, int shards) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(HeroesBackendApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("sharded")
+                .run("--spring.datasource.url=jdbc:h2:mem:bench-sharded-" + shards + ";DB_CLOSE_DELAY=-1",
+                        "--heroes.shards.count=" + shards,
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.io.navan=INFO",
+                        "--logging.level.org.hibernate=WARN");
+        List<Hero> toSave = new ArrayList<>(heroes);
+        for (int i = 1; i <= heroes; i++) {
+            toSave.add(new Hero("Hero " + i));
+        }
+        context.getBean(HeroRepository.class).saveAll(toSave);
+        return context;
+    }
+}
@@ -0,0 +1,94 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Heroes created a second by HeroGroupCommit, as createHero does, from 1 to 512 concurrent
+ * clients, each creating its share of {@link #CREATES} heroes one at a time. Without group commit
+ * every create is a transaction of its own, so creates a second stay flat however many clients
+ * there are. With it, creates from concurrent clients share a transaction and the rate grows
+ * with the clients; with a single client, each create waits out max-delay for company.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeroGroupCommitBenchmark {
+
+    static final int CREATES = 1024;
+
+    @Param({ "1", "8", "64", "512" })
+    int clients;
+
+    @Param({ "false", "true" })
+    boolean groupCommit;
+
+    @Param({ "2ms" })
+    String maxDelay;
+
+    ConfigurableApplicationContext context;
+    HeroGroupCommit heroGroupCommit;
+    ExecutorService executor;
+    final AtomicLong created = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start(1000,
+                "--heroes.group-commit.enabled=" + groupCommit,
+                "--heroes.group-commit.max-delay=" + maxDelay);
+        heroGroupCommit = context.getBean(HeroGroupCommit.class);
+        executor = Executors.newFixedThreadPool(clients);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        executor.shutdown();
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CREATES)
+    public void create() throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>(clients);
+        for (int client = 0; client < clients; client++) {
+            int creates = CREATES / clients;
+            done.add(executor.submit(() -> {
+                ready.await();
+                for (int i = 0; i < creates; i++) {
+                    heroGroupCommit.save(new Hero("Created " + created.incrementAndGet()));
+                }
+                return null;
+            }));
+        }
+        ready.countDown();
+        for (Future<?> client : done) {
+            client.get();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.navan.heroesbackend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.async.AsyncLoggerContext;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The DEBUG line HeroController logs for every GET /heroes, written to a file by request threads
+ * directly (sync) or through the async loggers' ring buffer (async). A full ring buffer makes
+ * callers wait here rather than drop events, so async is measured at the rate the background
+ * writer keeps up with, not at the rate events can be thrown away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.asyncQueueFullPolicy=Default")
+@Threads(4)
+public class HeroLoggingBenchmark {
+
+    private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5p --- [%t] %c{1.} : %m%n";
+
+    @Param({ "sync", "async" })
+    String mode;
+
+    Path file;
+    LoggerContext context;
+    Logger log;
+    HeroesRequestFilter filter;
+
+    @Setup
+    public void setup() throws IOException {
+        boolean async = mode.equals("async");
+        file = Files.createTempFile("heroes-logging", ".log");
+        ConfigurationBuilder<BuiltConfiguration> builder =
+                ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.add(builder.newAppender("File", "File")
+                .addAttribute("fileName", file.toString())
+                // Async loggers flush at the end of each batch instead.
+                .addAttribute("immediateFlush", !async)
+                .add(builder.newLayout("PatternLayout").addAttribute("pattern", PATTERN)));
+        builder.add(builder.newRootLogger(Level.DEBUG).add(builder.newAppenderRef("File")));
+        context = async ? new AsyncLoggerContext(mode) : new LoggerContext(mode);
+        context.start(builder.build());
+        log = context.getLogger(HeroController.class.getName());
+
+        filter = new HeroesRequestFilter();
+        filter.setName("man");
+        filter.setLimit(100);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void debugAllHeroes() {
+        log.debug("allHeroes filter:{}", filter);
+    }
+}
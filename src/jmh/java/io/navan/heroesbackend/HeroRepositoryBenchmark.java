@@ -0,0 +1,80 @@
+package io.navan.heroesbackend;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * HeroRepository against embedded H2 holding from a thousand to a million heroes.
+ * findByName and findById are answered by the caches after the first call, which is how the
+ * application sees them. narrowByTrigrams is the trigram index lookup behind findByName on a
+ * cache miss, scanByName the full scan it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeroRepositoryBenchmark {
+
+    static final String SEARCH = "ro 123";
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int heroes;
+
+    ConfigurableApplicationContext context;
+    HeroRepository heroRepository;
+    Long heroId;
+    long saved;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.start(heroes);
+        heroRepository = context.getBean(HeroRepository.class);
+        heroId = heroRepository.findByName("Hero " + heroes / 2).iterator().next().getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Iterable<Hero> findByName() {
+        return heroRepository.findByName(SEARCH);
+    }
+
+    @Benchmark
+    public Iterable<Hero> narrowByTrigrams() {
+        return heroRepository.narrowByTrigrams(SEARCH);
+    }
+
+    @Benchmark
+    public Iterable<Hero> scanByName() {
+        return heroRepository.scanByName(SEARCH);
+    }
+
+    @Benchmark
+    public Object findById() {
+        return heroRepository.findById(heroId);
+    }
+
+    @Benchmark
+    public Hero save() {
+        return heroRepository.save(new Hero("Saved " + saved++));
+    }
+}
@@ -0,0 +1,72 @@
+package io.navan.heroesbackend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+/**
+ * Jackson serialization of hero lists the size of a GET /heroes response, in each of the
+ * encodings HeroController can produce. The encoded size of each list is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeroSerializationBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    int heroes;
+
+    @Param({ "json", "cbor", "smile" })
+    String format;
+
+    ObjectMapper mapper;
+    List<Hero> heroList;
+    byte[] encoded;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        mapper = format.equals("cbor") ? new CBORMapper()
+                : format.equals("smile") ? new SmileMapper()
+                : new ObjectMapper();
+        heroList = new ArrayList<>(heroes);
+        for (long i = 1; i <= heroes; i++) {
+            Hero hero = new Hero("Hero " + i);
+            hero.setId(i);
+            hero.setVersion(0L);
+            heroList.add(hero);
+        }
+        encoded = mapper.writeValueAsBytes(heroList);
+        System.out.printf("%n%d heroes as %s: %d bytes%n", heroes, format, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] writeHeroes() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(heroList);
+    }
+
+    @Benchmark
+    public Hero[] readHeroes() throws IOException {
+        return mapper.readValue(encoded, Hero[].class);
+    }
+}
@@ -0,0 +1,68 @@
+package io.navan.heroesbackend;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * ShardedHeroRepository over one to eight local H2 shards holding 20000 heroes between them.
+ * findAll and scanByName go to every shard at once, so they gain from more shards only as far
+ * as there are cores to run the shards on. save writes the directory and then one shard, so
+ * should cost the same whatever the number of shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeroShardingBenchmark {
+
+    static final int HEROES = 20000;
+
+    @Param({ "1", "2", "4", "8" })
+    int shards;
+
+    ConfigurableApplicationContext context;
+    HeroRepository heroRepository;
+    long saved;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchmarkContext.startSharded(HEROES, shards);
+        heroRepository = context.getBean(HeroRepository.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Iterable<Hero> findAll() {
+        return heroRepository.findAll();
+    }
+
+    @Benchmark
+    public Iterable<Hero> scanByName() {
+        return heroRepository.scanByName(HeroRepositoryBenchmark.SEARCH);
+    }
+
+    @Benchmark
+    public Hero save() {
+        return heroRepository.save(new Hero("Saved " + saved++));
+    }
+}
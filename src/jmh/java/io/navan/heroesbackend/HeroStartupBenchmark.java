@@ -0,0 +1,135 @@
+package io.navan.heroesbackend;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from starting a JVM running the application to its first answer to GET /heroes, with
+ * the default profile, the fast profile, and the fast profile over a class-data sharing
+ * archive recorded by a training run as the appCds task does. Each operation is a new JVM.
+ * The resident set size of the JVM just after that first answer is printed with every
+ * iteration. Classes are only archived from the jars on the class path, not from directories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HeroStartupBenchmark {
+
+    static final String MAIN = HeroesBackendApplication.class.getName();
+
+    @Param({ "default", "fast", "fast+cds" })
+    String mode;
+
+    Path archive;
+    Process application;
+
+    @Setup(Level.Trial)
+    public void recordArchive() throws Exception {
+        if (!mode.endsWith("+cds")) {
+            return;
+        }
+        archive = Files.createTempFile("heroes", ".jsa");
+        Files.delete(archive);
+        List<String> command = java("-XX:ArchiveClassesAtExit=" + archive);
+        command.add("--heroes.startup.exit=true");
+        command.add("--server.port=0");
+        new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        if (archive != null) {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws InterruptedException {
+        application.destroy();
+        application.waitFor();
+    }
+
+    @Benchmark
+    public int firstRequest() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> command = java(archive == null ? null : "-XX:SharedArchiveFile=" + archive);
+        command.add("--server.port=" + port);
+        application = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        URL heroes = new URL("http://localhost:" + port + "/heroes");
+        while (true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) heroes.openConnection();
+                int status = connection.getResponseCode();
+                connection.getInputStream().readAllBytes();
+                System.out.println(mode + " rss: " + rssKilobytes(application.pid()) / 1024 + " MB");
+                return status;
+            } catch (IOException e) {
+                if (!application.isAlive()) {
+                    throw new IllegalStateException("Application exited with " + application.exitValue());
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private List<String> java(String archiveOption) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        if (archiveOption != null) {
+            command.add(archiveOption);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MAIN);
+        command.add("--logging.file.name=");
+        if (mode.startsWith("fast")) {
+            command.add("--spring.profiles.active=fast");
+        }
+        return command;
+    }
+
+    /**
+     * @return VmRSS from /proc, so 0 where there is none
+     */
+    private static long rssKilobytes(long pid) throws IOException {
+        Path status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return 0;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,66 @@
+package io.navan.heroesbackend;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The top ten suggestions of GET /heroes/suggest from HeroSuggestions holding from ten thousand
+ * to a million heroes, named "Hero 1", "Hero 2" and so on, as a user types "hero 123".
+ * typo has one character of the prefix changed. rename is a hero being renamed and back, the
+ * upkeep of a write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeroSuggestionsBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    int heroes;
+
+    HeroSuggestions suggestions;
+
+    @Setup(Level.Trial)
+    public void load() {
+        suggestions = new HeroSuggestions();
+        for (int i = 1; i <= heroes; i++) {
+            suggestions.add(i, "Hero " + i);
+        }
+    }
+
+    @Benchmark
+    public List<Hero> shortPrefix() {
+        return suggestions.suggest("he", 10, false);
+    }
+
+    @Benchmark
+    public List<Hero> longPrefix() {
+        return suggestions.suggest("hero 123", 10, false);
+    }
+
+    @Benchmark
+    public List<Hero> typo() {
+        return suggestions.suggest("hwro 123", 10, true);
+    }
+
+    @Benchmark
+    public void rename() {
+        suggestions.add(heroes / 2, "Renamed");
+        suggestions.add(heroes / 2, "Hero " + heroes / 2);
+    }
+}
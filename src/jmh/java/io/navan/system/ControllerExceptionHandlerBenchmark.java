@@ -0,0 +1,43 @@
+package io.navan.system;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * The duplicate hero path: building the exception chain Hibernate and Spring raise for a unique
+ * key violation, then turning it into a ValidationError.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ControllerExceptionHandlerBenchmark {
+
+    static final String CONSTRAINT_NAME = "\"PUBLIC.AK_HERO_INDEX_2 ON PUBLIC.HERO(NAME) VALUES 25\"";
+
+    ControllerExceptionHandler handler = new ControllerExceptionHandler();
+
+    @Benchmark
+    public ResponseEntity<ValidationError> handleDataIntegrityViolation() {
+        return handler.handleDataIntegrityViolation(new DataIntegrityViolationException(null,
+                new ConstraintViolationException("could not execute statement",
+                        new SQLException("Unique index or primary key violation", "23505", 23505),
+                        "insert into hero (name, version, id) values (?, ?, ?)", CONSTRAINT_NAME)),
+                null);
+    }
+}
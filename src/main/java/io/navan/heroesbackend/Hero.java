@@ -1,21 +1,34 @@
 package io.navan.heroesbackend;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import io.navan.system.HibernateCacheConfig;
 import io.swagger.annotations.ApiModelProperty;
  
 @Entity
 @Table(uniqueConstraints = {@UniqueConstraint(columnNames= "name")})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.HERO_REGION)
 public class Hero {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Ids are handed out from blocks of the pooled hero_seq sequence, so inserts can be batched.
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hero_seq")
+    @SequenceGenerator(name = "hero_seq", sequenceName = "hero_seq", allocationSize = 50)
     @ApiModelProperty(notes = "The database generated Hero ID")
     private Long id;
  
@@ -23,6 +36,11 @@ public class Hero {
     @Size(min = 1, max=20, message = "Name must be between 1 and 20 characters long")
     @ApiModelProperty(notes = "Hero's Name")
     private String name;
+
+    // Goes out as the ETag rather than in the JSON body.
+    @Version
+    @JsonIgnore
+    private Long version;
 	
 	public Hero() {}
 	
@@ -45,4 +63,12 @@ public class Hero {
     public String getName() {
         return name;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
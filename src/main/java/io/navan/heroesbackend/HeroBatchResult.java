@@ -0,0 +1,67 @@
+package io.navan.heroesbackend;
+
+import org.springframework.http.HttpStatus;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.navan.system.ValidationError;
+
+/**
+ * Outcome for one item of a batch request. The index is the item's position in the request,
+ * the status is what the single-hero endpoint would have answered for it. Failed items carry
+ * the same ValidationError body the single-hero endpoint would have returned.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HeroBatchResult {
+
+    private int index;
+    private HttpStatus httpStatus;
+    private Hero hero;
+    private ValidationError error;
+
+    public HeroBatchResult() {}
+
+    public HeroBatchResult(int index, HttpStatus httpStatus, Hero hero) {
+        this.index = index;
+        this.httpStatus = httpStatus;
+        this.hero = hero;
+    }
+
+    public HeroBatchResult(int index, ValidationError error) {
+        this.index = index;
+        this.httpStatus = error.getHttpStatus();
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public HttpStatus getHttpStatus() {
+        return httpStatus;
+    }
+
+    public void setHttpStatus(HttpStatus httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+
+    public Hero getHero() {
+        return hero;
+    }
+
+    public void setHero(Hero hero) {
+        this.hero = hero;
+    }
+
+    public ValidationError getError() {
+        return error;
+    }
+
+    public void setError(ValidationError error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,221 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.navan.system.ValidationError;
+
+/**
+ * Creates, updates and deletes many heroes in one transaction.
+ * Items are validated and checked for unique names up front, against each other and HeroNames,
+ * and reported one by one, so a bad item only fails itself. The good items are written in
+ * chunks of {@link #CHUNK_SIZE}, which Hibernate sends as JDBC batches, and the persistence
+ * context is cleared after every chunk so memory does not grow with the size of the request.
+ */
+@Service
+public class HeroBatchService {
+
+    static final int CHUNK_SIZE = 500;
+
+    static final String ALREADY_EXISTS = "Already Exists";
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroBatchService.class);
+
+    @Autowired
+    HeroRepository heroRepository;
+
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    HeroNames heroNames;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    /**
+     * Create heroes. Any ids given are ignored.
+     *
+     * @param heroes The heroes to create
+     * @return one result per hero, in request order
+     */
+    @Transactional
+    public List<HeroBatchResult> createHeroes(List<Hero> heroes) {
+        HeroBatchResult[] results = new HeroBatchResult[heroes.size()];
+        Set<String> names = new HashSet<>();
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < heroes.size(); i++) {
+            Hero hero = heroes.get(i);
+            ValidationError error = validate(hero);
+            if (error == null && !names.add(hero.getName())) {
+                error = alreadyExists();
+            }
+            if (error != null) {
+                results[i] = new HeroBatchResult(i, error);
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        for (List<Integer> chunk : chunks(accepted)) {
+            List<Hero> toCreate = new ArrayList<>(chunk.size());
+            for (int i : chunk) {
+                Hero hero = heroes.get(i);
+                if (heroNames.exists(hero.getName())) {
+                    results[i] = new HeroBatchResult(i, alreadyExists());
+                } else {
+                    Hero newHero = new Hero(hero.getName());
+                    toCreate.add(newHero);
+                    results[i] = new HeroBatchResult(i, HttpStatus.CREATED, newHero);
+                }
+            }
+            heroRepository.saveAll(toCreate);
+            flushAndClear();
+        }
+        LOG.debug("createHeroes: {} heroes, {} accepted", heroes.size(), accepted.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Rename heroes. Each hero must carry the id of an existing hero.
+     *
+     * @param heroes The heroes to update
+     * @return one result per hero, in request order
+     */
+    @Transactional
+    public List<HeroBatchResult> updateHeroes(List<Hero> heroes) {
+        HeroBatchResult[] results = new HeroBatchResult[heroes.size()];
+        Set<String> names = new HashSet<>();
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < heroes.size(); i++) {
+            Hero hero = heroes.get(i);
+            ValidationError error = hero.getId() == null ? idRequired() : validate(hero);
+            if (error == null && !names.add(hero.getName())) {
+                error = alreadyExists();
+            }
+            if (error != null) {
+                results[i] = new HeroBatchResult(i, error);
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        for (List<Integer> chunk : chunks(accepted)) {
+            Map<Long, Hero> currentHeroes = new HashMap<>();
+            heroRepository.findAllById(idsOf(heroes, chunk))
+                    .forEach(hero -> currentHeroes.put(hero.getId(), hero));
+            for (int i : chunk) {
+                Hero hero = heroes.get(i);
+                Hero currentHero = currentHeroes.get(hero.getId());
+                Long owner = heroNames.owner(hero.getName()).orElse(null);
+                if (currentHero == null) {
+                    results[i] = new HeroBatchResult(i, notFound());
+                } else if (owner != null && !owner.equals(hero.getId())) {
+                    results[i] = new HeroBatchResult(i, alreadyExists());
+                } else {
+                    currentHero.setName(hero.getName());
+                    results[i] = new HeroBatchResult(i, HttpStatus.NO_CONTENT, currentHero);
+                }
+            }
+            heroRepository.saveAll(currentHeroes.values());
+            flushAndClear();
+        }
+        LOG.debug("updateHeroes: {} heroes, {} accepted", heroes.size(), accepted.size());
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Delete heroes by id.
+     *
+     * @param ids The ids of the heroes to delete
+     * @return one result per id, in request order
+     */
+    @Transactional
+    public List<HeroBatchResult> deleteHeroes(List<Long> ids) {
+        HeroBatchResult[] results = new HeroBatchResult[ids.size()];
+        List<Integer> all = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            all.add(i);
+        }
+        for (List<Integer> chunk : chunks(all)) {
+            List<Long> chunkIds = new ArrayList<>(chunk.size());
+            chunk.forEach(i -> chunkIds.add(ids.get(i)));
+            Set<Long> existingIds = new HashSet<>(heroRepository.findExistingIds(chunkIds));
+            if (!existingIds.isEmpty()) {
+                heroRepository.deleteAllByIdIn(existingIds);
+            }
+            for (int i : chunk) {
+                results[i] = existingIds.contains(ids.get(i))
+                        ? new HeroBatchResult(i, HttpStatus.NO_CONTENT, null)
+                        : new HeroBatchResult(i, notFound());
+            }
+        }
+        LOG.debug("deleteHeroes: {} ids", ids.size());
+        return Arrays.asList(results);
+    }
+
+    private void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private ValidationError validate(Hero hero) {
+        Set<ConstraintViolation<Hero>> violations = validator.validate(hero);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        List<ValidationError.Error> errors = new ArrayList<>();
+        for (ConstraintViolation<Hero> violation : violations) {
+            errors.add(new ValidationError.Error(violation.getRootBeanClass().getName(),
+                    violation.getPropertyPath().toString(),
+                    violation.getMessage()));
+        }
+        return new ValidationError(HttpStatus.BAD_REQUEST, "Validation Errors", errors);
+    }
+
+    static ValidationError alreadyExists() {
+        return new ValidationError(HttpStatus.BAD_REQUEST, "Hero name already exists",
+                new ValidationError.Error(Hero.class.getName(), "name", ALREADY_EXISTS));
+    }
+
+    private static ValidationError idRequired() {
+        return new ValidationError(HttpStatus.BAD_REQUEST, "Validation Errors",
+                new ValidationError.Error(Hero.class.getName(), "id", "Id is required"));
+    }
+
+    private static ValidationError notFound() {
+        return new ValidationError(HttpStatus.NOT_FOUND, "Resource not found",
+                new ValidationError.Error(Hero.class.getName(), "*", "Hero not found"));
+    }
+
+    private static List<List<Integer>> chunks(List<Integer> indexes) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < indexes.size(); from += CHUNK_SIZE) {
+            chunks.add(indexes.subList(from, Math.min(from + CHUNK_SIZE, indexes.size())));
+        }
+        return chunks;
+    }
+
+    private static List<Long> idsOf(List<Hero> heroes, List<Integer> indexes) {
+        List<Long> ids = new ArrayList<>(indexes.size());
+        indexes.forEach(i -> ids.add(heroes.get(i).getId()));
+        return ids;
+    }
+}
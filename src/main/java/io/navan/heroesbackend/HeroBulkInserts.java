@@ -0,0 +1,21 @@
+package io.navan.heroesbackend;
+
+import java.util.List;
+
+import org.springframework.dao.DuplicateKeyException;
+
+/**
+ * Creating many new heroes at once, for POST /heroes/import, without an entity or a statement
+ * a hero. Part of HeroRepository; for JPA, see HeroBulkInsertsImpl.
+ */
+public interface HeroBulkInserts {
+
+    /**
+     * Insert new heroes, giving them ids and version 0. They must already be valid.
+     *
+     * @param heroes The heroes, without ids
+     * @throws DuplicateKeyException if a name is taken, in which case none are inserted where
+     *             the repository is transactional
+     */
+    void insertAll(List<Hero> heroes);
+}
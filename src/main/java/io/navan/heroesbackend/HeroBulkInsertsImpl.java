@@ -0,0 +1,86 @@
+package io.navan.heroesbackend;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * HeroBulkInserts for the JPA HeroRepository, with plain JDBC: heroes are inserted as one JDBC
+ * batch and trigram indexed together afterwards, see HeroTrigramTrigger.index, rather than by
+ * the trigger a hero at a time. Ids are taken from hero_seq in blocks, as Hibernate takes them.
+ * Hibernate does not see these inserts, so its query cache regions are cleared after them, and
+ * again once their transaction is over, in case a query cached them as they were before.
+ */
+public class HeroBulkInsertsImpl implements HeroBulkInserts {
+
+    // As Hero's hero_seq generator.
+    private static final int ID_BLOCK = 50;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private long nextId;
+    private long idLimit;
+
+    @Override
+    @Transactional
+    public void insertAll(List<Hero> heroes) {
+        if (heroes.isEmpty()) {
+            return;
+        }
+        for (Hero hero : heroes) {
+            hero.setId(nextId());
+            hero.setVersion(0L);
+        }
+        HeroTrigramTrigger.indexLater(() -> jdbcTemplate.execute((ConnectionCallback<Void>) conn -> {
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "insert into hero(id, name, version) values (?, ?, ?)")) {
+                for (Hero hero : heroes) {
+                    insert.setLong(1, hero.getId());
+                    insert.setString(2, hero.getName());
+                    insert.setLong(3, hero.getVersion());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            HeroTrigramTrigger.index(conn, heroes);
+            return null;
+        }));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evictQueries();
+                }
+            });
+        }
+        evictQueries();
+    }
+
+    private void evictQueries() {
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+
+    /**
+     * The next id of the current block of hero_seq, taking a new block when it runs out.
+     */
+    private synchronized long nextId() {
+        if (nextId == idLimit) {
+            nextId = jdbcTemplate.queryForObject("select next value for hero_seq", Long.class);
+            idLimit = nextId + ID_BLOCK;
+        }
+        return nextId++;
+    }
+}
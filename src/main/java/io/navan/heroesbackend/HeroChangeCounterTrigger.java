@@ -0,0 +1,43 @@
+package io.navan.heroesbackend;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 row trigger that counts the changes made to hero, see schema.sql. H2 only lets row triggers
+ * write, so the count goes up by one per row rather than per statement.
+ * The count moves whenever the hero table does, however it was written, so it can stand in for
+ * the whole table when working out whether a client's copy of the hero list is still current.
+ * It is striped over the rows of hero_change_counter by session, so a transaction only locks
+ * its own session's row until it ends, and a long import doesn't hold up every other write.
+ */
+public class HeroChangeCounterTrigger implements Trigger {
+
+    // Rows of hero_change_counter, see schema.sql
+    static final int STRIPES = 32;
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName,
+            boolean before, int type) {
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement(
+                "update hero_change_counter set changes = changes + 1 where id = mod(session_id(), "
+                        + STRIPES + ")")) {
+            update.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
@@ -0,0 +1,528 @@
+package io.navan.heroesbackend;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Server-sent events for hero writes, behind GET /heroes/changes. Events are created, updated
+ * and deleted, with the hero as GET /heroes/{id} has it (just the id for deleted).
+ * Writes are told by HeroRowTrigger, so every write is seen however it is made, and published
+ * when its transaction commits. Each is stamped while its row is locked, so a write published
+ * after a later write to the same hero, though it committed first, is dropped rather than sent
+ * out of order. A transaction writing more than heroes.changes.log-size heroes, such as an
+ * import batch, is published as one reset event instead of hero by hero.
+ * The last heroes.changes.log-size events are kept, so a client reconnecting with
+ * Last-Event-ID is sent the ones it missed. One whose id is too old, or from before this
+ * instance started, is sent a reset event instead, and should read the hero list again.
+ * A subscriber costs an async request and its place in the log; no thread waits on it. Events
+ * are written with servlet non-blocking output, by a small pool of senders, only while the
+ * client's socket takes them. A subscriber that falls behind the log is sent a reset and carries
+ * on from the newest event; one whose socket takes nothing for heroes.changes.max-stall is
+ * disconnected.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HeroChangeFeed implements HeroRowTrigger.Listener {
+
+    public static final String SUBSCRIBERS = "heroes.changes.subscribers";
+    public static final String DISCONNECTED = "heroes.changes.disconnected";
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroChangeFeed.class);
+
+    // A comment line, which EventSource ignores but which keeps idle connections open.
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    // How often subscribers are checked for stalled sockets.
+    private static final long STALL_CHECK_MILLIS = 250;
+
+    @Value("${heroes.changes.log-size:1000}")
+    int logSize;
+
+    @Value("${heroes.changes.max-stall:30s}")
+    Duration maxStall;
+
+    @Value("${heroes.changes.senders:4}")
+    int senderCount;
+
+    @Value("${heroes.changes.timeout:30m}")
+    Duration timeout;
+
+    @Value("${heroes.changes.heartbeat:25s}")
+    Duration heartbeat;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    HeroTables heroTables;
+
+    // Guards the log and the heroes' latest stamps, so every subscriber gets events in id order.
+    private final Object lock = new Object();
+    // The event with id n is at n % logSize, for the last logSize ids.
+    private Change[] log;
+    private long lastId;
+    // The stamp of each hero's latest event in the log.
+    private final Map<Long, Long> latest = new HashMap<>();
+
+    private final AtomicLong stamps = new AtomicLong();
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private ExecutorService senders;
+    private ScheduledExecutorService heartbeats;
+    private Counter disconnected;
+
+    @PostConstruct
+    void start() {
+        log = new Change[logSize];
+        CustomizableThreadFactory senderThreads = new CustomizableThreadFactory("hero-changes-");
+        senderThreads.setDaemon(true);
+        senders = Executors.newFixedThreadPool(senderCount, senderThreads);
+        CustomizableThreadFactory heartbeatThread = new CustomizableThreadFactory("hero-changes-heartbeat-");
+        heartbeatThread.setDaemon(true);
+        heartbeats = Executors.newSingleThreadScheduledExecutor(heartbeatThread);
+        heartbeats.scheduleAtFixedRate(() -> subscribers.forEach(Subscriber::heartbeat),
+                heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+        heartbeats.scheduleWithFixedDelay(this::disconnectStalled,
+                STALL_CHECK_MILLIS, STALL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        Gauge.builder(SUBSCRIBERS, subscribers, Set::size)
+                .description("Clients subscribed to hero changes")
+                .register(meterRegistry);
+        disconnected = Counter.builder(DISCONNECTED)
+                .description("Subscribers disconnected for a socket taking nothing for max-stall")
+                .register(meterRegistry);
+        heroTables.all().forEach(heroTable -> HeroRowTrigger.listen(heroTable, this));
+    }
+
+    @PreDestroy
+    void stop() {
+        HeroRowTrigger.stopListening(this);
+        heartbeats.shutdownNow();
+        subscribers.forEach(Subscriber::complete);
+        senders.shutdown();
+    }
+
+    /**
+     * Stamp the write, and publish it once its transaction commits, or now if there is none.
+     */
+    @Override
+    public void changed(Hero before, Hero after) {
+        Write write = new Write(before, after, stamps.incrementAndGet());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(List.of(write));
+            return;
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof Writes && ((Writes) synchronization).feed() == this) {
+                ((Writes) synchronization).add(write);
+                return;
+            }
+        }
+        Writes writes = new Writes();
+        writes.add(write);
+        TransactionSynchronizationManager.registerSynchronization(writes);
+    }
+
+    /**
+     * Subscribe to changes, starting after the event with the given id if there is one. The
+     * request is made asynchronous and the events written to the response as its socket takes
+     * them.
+     *
+     * @param lastEventId The id of the last event the client had, null if none
+     */
+    public void subscribe(String lastEventId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(async, response.getOutputStream());
+        async.addListener(subscriber);
+        synchronized (lock) {
+            Long since = lastEventId == null ? Long.valueOf(lastId) : since(lastEventId);
+            if (since == null || since > lastId) {
+                subscriber.next = lastId + 1;
+                subscriber.reset = true;
+            } else {
+                // Ids fallen out of the log are answered with a reset when they are reached.
+                subscriber.next = since + 1;
+            }
+            subscribers.add(subscriber);
+        }
+        // Told as soon as the socket takes writes, starting the response at once.
+        subscriber.out.setWriteListener(subscriber);
+        LOG.debug("Subscribed to hero changes after {}, {} subscribers", lastEventId, subscribers.size());
+    }
+
+    private void publish(List<Write> writes) {
+        List<Change> changes = new ArrayList<>(writes.size());
+        for (Write write : writes) {
+            Change change = write.change();
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            for (Change change : changes) {
+                Long newer = latest.get(change.heroId);
+                if (newer == null || newer < change.stamp) {
+                    append(change);
+                }
+            }
+        }
+        subscribers.forEach(Subscriber::schedule);
+    }
+
+    private void publishReset() {
+        synchronized (lock) {
+            append(new Change(null, 0, "reset", ""));
+        }
+        subscribers.forEach(Subscriber::schedule);
+    }
+
+    private void append(Change change) {
+        change.id = ++lastId;
+        int slot = (int) (change.id % logSize);
+        Change dropped = log[slot];
+        if (dropped != null && dropped.heroId != null) {
+            latest.remove(dropped.heroId, dropped.stamp);
+        }
+        log[slot] = change;
+        if (change.heroId != null) {
+            latest.put(change.heroId, change.stamp);
+        }
+    }
+
+    /**
+     * @return the event to send a subscriber next, null if it has had every one
+     */
+    private byte[] next(Subscriber subscriber) {
+        synchronized (lock) {
+            if (subscriber.reset || subscriber.next <= lastId - logSize) {
+                subscriber.reset = false;
+                subscriber.next = lastId + 1;
+                return Change.event(eventId(lastId), "reset", "");
+            }
+            if (subscriber.next <= lastId) {
+                return log[(int) (subscriber.next++ % logSize)].event();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the id of the event with the given Last-Event-ID, null if it is not one of this
+     *         instance's
+     */
+    private static Long since(String lastEventId) {
+        int dash = lastEventId.lastIndexOf('-');
+        if (dash < 0 || !lastEventId.substring(0, dash).equals(HeroChanges.EPOCH)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(lastEventId.substring(dash + 1), 36);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void disconnectStalled() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            long stalledAt = subscriber.stalledAt;
+            if (stalledAt != 0 && now - stalledAt > maxStall.toMillis()) {
+                LOG.debug("Disconnecting hero change subscriber stalled for {}ms", now - stalledAt);
+                disconnected.increment();
+                subscriber.complete();
+            }
+        }
+    }
+
+    private static String eventId(long id) {
+        return HeroChanges.EPOCH + "-" + Long.toString(id, 36);
+    }
+
+    private String heroJson(Long id, String name) {
+        Hero hero = new Hero(name);
+        hero.setId(id);
+        try {
+            return objectMapper.writeValueAsString(hero);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A write to a hero as HeroRowTrigger told it, stamped in the order the row was locked.
+     */
+    private final class Write {
+
+        final Hero before;
+        Hero after;
+        long stamp;
+
+        Write(Hero before, Hero after, long stamp) {
+            this.before = before;
+            this.after = after;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return the event for the write, null if it ends where it started
+         */
+        Change change() {
+            if (after == null) {
+                return before == null ? null
+                        : new Change(before.getId(), stamp, "deleted", "{\"id\":" + before.getId() + "}");
+            }
+            String data = heroJson(after.getId(), after.getName());
+            if (before == null) {
+                return new Change(after.getId(), stamp, "created", data);
+            }
+            if (Objects.equals(before.getName(), after.getName())
+                    && Objects.equals(before.getVersion(), after.getVersion())) {
+                return null;
+            }
+            return new Change(after.getId(), stamp, "updated", data);
+        }
+    }
+
+    /**
+     * The writes of one transaction, one a hero from its state before the first to after the
+     * last, so a write rolled back to a savepoint comes to nothing. Published if it commits.
+     */
+    private final class Writes implements TransactionSynchronization {
+
+        private final Map<Long, Write> byHero = new LinkedHashMap<>();
+        private boolean reset;
+
+        HeroChangeFeed feed() {
+            return HeroChangeFeed.this;
+        }
+
+        void add(Write write) {
+            if (reset) {
+                return;
+            }
+            Hero hero = write.after != null ? write.after : write.before;
+            Write earlier = byHero.get(hero.getId());
+            if (earlier == null) {
+                byHero.put(hero.getId(), write);
+            } else {
+                earlier.after = write.after;
+                earlier.stamp = write.stamp;
+            }
+            if (byHero.size() > logSize) {
+                reset = true;
+                byHero.clear();
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != STATUS_COMMITTED) {
+                return;
+            }
+            if (reset) {
+                publishReset();
+            } else {
+                publish(new ArrayList<>(byHero.values()));
+            }
+        }
+    }
+
+    /**
+     * An event, written out once however many are sent it.
+     */
+    private static final class Change {
+
+        final Long heroId;
+        final long stamp;
+        final String type;
+        final String data;
+        long id;
+        private byte[] event;
+
+        Change(Long heroId, long stamp, String type, String data) {
+            this.heroId = heroId;
+            this.stamp = stamp;
+            this.type = type;
+            this.data = data;
+        }
+
+        byte[] event() {
+            if (event == null) {
+                event = event(eventId(id), type, data);
+            }
+            return event;
+        }
+
+        static byte[] event(String id, String type, String data) {
+            return ("id:" + id + "\nevent:" + type + "\ndata:" + data + "\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * One client, with the id of the next event to send it. Events are written while its socket
+     * takes them, by one thread at a time: a sender after an event is published, or the
+     * container once a socket that would not take more will.
+     */
+    private final class Subscriber implements Runnable, WriteListener, AsyncListener {
+
+        final AsyncContext async;
+        final ServletOutputStream out;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Guarded by the feed's lock
+        long next;
+        boolean reset;
+        // Guarded by this
+        boolean flushed;
+        volatile boolean heartbeatDue = true;
+        // When the socket last stopped taking writes, 0 while it takes them.
+        volatile long stalledAt;
+        volatile boolean closed;
+
+        Subscriber(AsyncContext async, ServletOutputStream out) {
+            this.async = async;
+            this.out = out;
+        }
+
+        void heartbeat() {
+            heartbeatDue = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            send();
+        }
+
+        @Override
+        public void onWritePossible() {
+            send();
+        }
+
+        private synchronized void send() {
+            if (closed) {
+                return;
+            }
+            try {
+                while (out.isReady()) {
+                    stalledAt = 0;
+                    byte[] event = heartbeatDue ? HEARTBEAT : next(this);
+                    heartbeatDue = false;
+                    if (event == null) {
+                        if (flushed) {
+                            return;
+                        }
+                        flushed = true;
+                        out.flush();
+                    } else {
+                        flushed = false;
+                        out.write(event);
+                    }
+                }
+                // Sent on by onWritePossible once the socket takes writes again.
+                if (stalledAt == 0) {
+                    stalledAt = System.currentTimeMillis();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Gone, or completed while its events were being sent.
+                close();
+            }
+        }
+
+        void complete() {
+            close();
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // Already completed.
+            }
+        }
+
+        private void close() {
+            closed = true;
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            complete();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
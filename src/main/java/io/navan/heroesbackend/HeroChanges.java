@@ -0,0 +1,59 @@
+package io.navan.heroesbackend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Entity tags for heroes. A single hero's tag is its version. The hero list's tag is the
+ * hero_change_counter maintained by HeroChangeCounterTrigger, so it costs a sum over its few
+ * rows rather than a read of every hero. The counter starts over with the in-memory database, so
+ * list tags also carry the time this instance started.
+ * The counter is read from the replica, as the lists it tags are. With the heroes in several
+ * databases, see HeroTables, their counters are added up.
+ */
+@Component
+@Transactional(readOnly = true)
+public class HeroChanges {
+
+    static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    @Autowired
+    HeroTables heroTables;
+
+    /**
+     * @return the number of changes made to hero rows, in every database holding heroes
+     */
+    public long changes() {
+        long changes = 0;
+        for (JdbcTemplate heroTable : heroTables.all()) {
+            changes += heroTable.queryForObject(
+                    "select cast(sum(changes) as bigint) from hero_change_counter", Long.class);
+        }
+        return changes;
+    }
+
+    /**
+     * @return weak entity tag for any list of heroes, changing whenever the hero table does
+     */
+    public String listEtag() {
+        return listEtag(changes());
+    }
+
+    /**
+     * @param changes The number of changes made to hero rows
+     * @return weak entity tag for any list of heroes after that many changes
+     */
+    public static String listEtag(long changes) {
+        return "W/\"" + EPOCH + "-" + Long.toString(changes, 36) + "\"";
+    }
+
+    /**
+     * @param hero The hero
+     * @return strong entity tag for the hero
+     */
+    public static String etag(Hero hero) {
+        return "\"" + hero.getVersion() + "\"";
+    }
+}
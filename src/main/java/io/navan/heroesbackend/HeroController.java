@@ -1,27 +1,49 @@
 package io.navan.heroesbackend;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.rest.webmvc.ResourceNotFoundException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.navan.system.ValidationError;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -32,11 +54,59 @@ import io.swagger.annotations.ApiResponses;
 @RestController
 @RequestMapping(value = "heroes")
 @Api(tags= {"heroes"})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class HeroController {
 
     @Autowired
     HeroRepository heroRepository;
 
+    @Autowired
+    HeroStreamer heroStreamer;
+
+    @Autowired
+    HeroBatchService heroBatchService;
+
+    @Autowired
+    HeroChanges heroChanges;
+
+    @Autowired
+    HeroSnapshot heroSnapshot;
+
+    @Autowired
+    HeroNames heroNames;
+
+    @Autowired
+    HeroChangeFeed heroChangeFeed;
+
+    @Autowired
+    HeroSuggestions heroSuggestions;
+
+    @Autowired
+    HeroReads heroReads;
+
+    @Autowired
+    HeroGroupCommit heroGroupCommit;
+
+    @Autowired
+    HeroImporter heroImporter;
+
+    @Autowired
+    Validator validator;
+
+    /**
+     * Binary encodings of the same JSON documents, for callers that would rather not pay for
+     * text. JSON stays first, so it is what a request without Accept gets.
+     */
+    static final String CBOR = "application/cbor";
+    static final String SMILE = "application/x-jackson-smile";
+    static final String CSV = "text/csv";
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    static final int DEFAULT_SUGGESTIONS = 10;
+    static final int MAX_SUGGESTIONS = 100;
+
     private static final Logger LOG = LoggerFactory.getLogger(HeroController.class);
 
     /**
@@ -45,14 +115,21 @@ public class HeroController {
      * @param hero The hero to create
      * @return the created hero
      */
-    @PostMapping(consumes = "application/json", produces = "application/json")
+    @PostMapping(consumes = { "application/json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
     @ResponseStatus(HttpStatus.CREATED)
     @ApiOperation(value = "Create a hero resource.",
                     notes = "Create hero returning the new Hero")
+    @ApiResponses(value = {
+        @ApiResponse(code=400, message="Validation Errors")
+    })
     public Hero createHero(@RequestBody Hero hero,
             HttpServletRequest request, HttpServletResponse response) {
         LOG.debug("createHero: {}", hero.getName());
-        Hero createdHero = heroRepository.save(hero);
+        if (heroNames.exists(hero.getName())) {
+            throw new DuplicateKeyException("Hero name already exists");
+        }
+        Hero createdHero = heroGroupCommit.save(hero);
         response.setHeader("Location", request
                 .getRequestURL()
                 .append("/")
@@ -63,19 +140,34 @@ public class HeroController {
     }
 
     /**
-     * Retrieve all heroes
+     * Retrieve all heroes, or one keyset page of them when after or limit is given.
+     * A page that comes back full carries a Link header pointing at the next page.
+     * Answers 304 Not Modified, without reading any heroes, if the hero table has not changed
+     * since the ETag in If-None-Match.
+     * Unfiltered requests for JSON are answered by heroSnapshot instead.
      * 
-     * @return iterable with all heroes
+     * @return iterable with all heroes, null if not modified
      */
-    @GetMapping(produces = "application/json")
-    @ResponseStatus(HttpStatus.OK)
-    @ApiOperation(value = "Get all heroes.", notes = "Get a list of all heroes.")
+    @GetMapping(produces = { "application/json", CBOR, SMILE })
+    @ApiOperation(value = "Get all heroes.",
+            notes = "Get a list of all heroes. Use after and limit to page through them by id.")
+    @ApiResponses(value = {
+            @ApiResponse(code=304, message="Not Modified")
+    })
     public @ResponseBody Iterable<Hero> allHeroes(
             @ApiParam(value = "Search by this stuff", required = false)
-            HeroesRequestFilter heroesRequestFilter) {
+            HeroesRequestFilter heroesRequestFilter,
+            WebRequest webRequest,
+            HttpServletResponse response) {
         LOG.debug("allHeroes filter:{}", heroesRequestFilter);
+        if (webRequest.checkNotModified(heroChanges.listEtag())) {
+            return null;
+        }
         if (heroesRequestFilter.getName() != null) {
-            return heroRepository.findByName(heroesRequestFilter.getName());
+            return heroReads.findByName(heroesRequestFilter.getName());
+        }
+        else if (heroesRequestFilter.isPaged()) {
+            return heroPage(heroesRequestFilter, response);
         }
         else {
             return heroRepository.findAll();
@@ -83,67 +175,216 @@ public class HeroController {
     }
 
     /**
-     * Get a hero by id.
+     * Retrieve all heroes as JSON from the hero snapshot, gzipped if the client accepts it.
+     * Takes the unfiltered JSON requests that would otherwise go to allHeroes, and answers them
+     * with the same body and ETag.
+     * 
+     * @return the hero list, null if not modified
+     */
+    @GetMapping(params = { "!name", "!after", "!limit", "!stream" }, produces = "application/json")
+    @ApiOperation(value = "Get all heroes.", hidden = true)
+    public ResponseEntity<byte[]> heroSnapshot(WebRequest webRequest,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        HeroSnapshot.Snapshot snapshot = heroSnapshot.current();
+        LOG.debug("heroSnapshot at {} changes", snapshot.getChanges());
+        if (webRequest.checkNotModified(HeroChanges.listEtag(snapshot.getChanges()))) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(acceptEncoding)) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(snapshot.getGzip());
+        }
+        return response.body(snapshot.getJson());
+    }
+
+    /**
+     * Stream all heroes straight from the database into the response body. Same JSON array as
+     * GET /heroes, but no hero list is ever built, so memory use does not grow with the table.
+     * 
+     * @return body that writes the heroes as they are read
+     */
+    @GetMapping(params = "stream=true", produces = "application/json")
+    @ApiOperation(value = "Stream all heroes.",
+            notes = "Stream every hero from a database cursor, for very large hero tables.")
+    public StreamingResponseBody streamHeroes(WebRequest webRequest) {
+        LOG.debug("streamHeroes");
+        if (webRequest.checkNotModified(heroChanges.listEtag())) {
+            return null;
+        }
+        return heroStreamer::writeJsonArray;
+    }
+
+    /**
+     * Export every hero straight from a database cursor, as newline delimited JSON or, for
+     * Accept: text/csv, as CSV. Nothing but the current row is held, however many heroes there
+     * are. POST /heroes/import reads either back.
+     * 
+     * @return body that writes the heroes as they are read
+     */
+    @GetMapping(value = "/export", produces = { MediaType.APPLICATION_NDJSON_VALUE, CSV })
+    @ApiOperation(value = "Export all heroes.",
+            notes = "Stream every hero as newline delimited JSON, or as CSV for Accept: text/csv.")
+    public ResponseEntity<StreamingResponseBody> exportHeroes(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        boolean csv = acceptsCsv(accept);
+        LOG.debug("exportHeroes as {}", csv ? "csv" : "ndjson");
+        StreamingResponseBody body = csv ? heroStreamer::writeCsv : heroStreamer::writeNdjson;
+        return ResponseEntity.ok()
+                .contentType(csv ? MediaType.parseMediaType(CSV) : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=heroes." + (csv ? "csv" : "ndjson"))
+                .body(body);
+    }
+
+    /**
+     * Import heroes from newline delimited JSON or CSV with a name column, as GET /heroes/export
+     * writes them. The upload is read as it arrives and written in large batches, so neither is
+     * ever held whole. Imported heroes get new ids.
+     * 
+     * @param onConflict skip to pass over heroes whose name is taken, fail to stop at the first
+     * @return the rows read, created, skipped and invalid, and rows a second
+     */
+    @PostMapping(value = "/import", consumes = { MediaType.APPLICATION_NDJSON_VALUE, CSV },
+            produces = "application/json")
+    @ApiOperation(value = "Import heroes.",
+            notes = "Create a hero for every row of newline delimited JSON or CSV, reporting the rows created, skipped and invalid")
+    @ApiResponses(value = {
+        @ApiResponse(code=400, message="Already Exists with onConflict=fail, a row could not be read, or onConflict is neither skip nor fail")
+    })
+    public ResponseEntity<HeroImportResult> importHeroes(
+            @ApiParam(value = "skip (default) or fail, for heroes whose name is taken", required = false)
+            @RequestParam(value = "onConflict", defaultValue = "skip") String onConflict,
+            HttpServletRequest request) throws IOException {
+        HeroImporter.OnConflict conflicts = HeroImporter.OnConflict.of(onConflict);
+        if (conflicts == null) {
+            HeroImportResult result = new HeroImportResult();
+            result.setError(new ValidationError(HttpStatus.BAD_REQUEST, "Unknown onConflict",
+                    new ValidationError.Error(Hero.class.getName(), "onConflict", "Must be skip or fail")));
+            return ResponseEntity.badRequest().body(result);
+        }
+        HeroImporter.Format format = MediaType.parseMediaType(CSV)
+                .isCompatibleWith(MediaType.parseMediaType(request.getContentType()))
+                ? HeroImporter.Format.CSV : HeroImporter.Format.NDJSON;
+        LOG.debug("importHeroes from {} onConflict {}", format, conflicts);
+        HeroImportResult result = heroImporter.importHeroes(request.getInputStream(), format, conflicts);
+        return ResponseEntity.status(result.getError() == null ? HttpStatus.OK : result.getError().getHttpStatus())
+                .body(result);
+    }
+
+    /**
+     * Get a hero by id. The hero's version goes out as a strong ETag, and a matching
+     * If-None-Match is answered with 304 Not Modified.
      * 
      * @param id
      *            the hero's id
-     * @return the hero
+     * @return the hero, null if not modified
      */
-    @GetMapping(value = "/{id:\\d+}", produces = "application/json")
-    @ResponseStatus(HttpStatus.OK)
+    @GetMapping(value = "/{id:\\d+}", produces = { "application/json", CBOR, SMILE })
     @ApiOperation(value = "Get a single hero.", notes = "Get hero By ID.")
     @ApiResponses(value = {
+            @ApiResponse(code=304, message="Not Modified"),
             @ApiResponse(code=404, message="Hero not found.")
     })
     public @ResponseBody Hero singleHero(
             @ApiParam(value = "The ID of the hero.", required = true)
-            @PathVariable Long id) {
+            @PathVariable Long id,
+            WebRequest webRequest) {
         LOG.debug("singleHero for id {}", id);
-        Optional<Hero> hero = heroRepository.findById(id);
+        Optional<Hero> hero = heroReads.findById(id);
         if (hero.isEmpty()) {
             throw new ResourceNotFoundException("Hero not found");
         }
+        if (webRequest.checkNotModified(HeroChanges.etag(hero.get()))) {
+            return null;
+        }
         return hero.get();
     }
 
     /**
      * Update a hero. Hero must exist for id.
+     * The hero is renamed with a single UPDATE, without being read first. With If-Match, the
+     * update only goes ahead if the hero is still at the version the ETag was given out for.
      * 
      * @param id
      *            The id of the hero to update
      * @param hero
      *            The hero value
+     * @param ifMatch
+     *            ETags the hero must match, optional
      * @throws ResourceNotFoundException
      *             if not found.
+     * @throws OptimisticLockingFailureException
+     *             if the hero has changed since the If-Match ETag.
+     * @throws DuplicateKeyException
+     *             if another hero has the name.
      */
     @PutMapping(value = "/{id:\\d+}",
-            consumes = "application/json",
-            produces = "application/json")
+            consumes = { "application/json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ApiOperation(value = "Update an existing hero resource.",
             notes = "Update Hero for id.")
     @ApiResponses(value = {
         @ApiResponse(code=400, message="Validation Errors"),
-        @ApiResponse(code=404, message="Hero not found")
+        @ApiResponse(code=404, message="Hero not found"),
+        @ApiResponse(code=412, message="Hero has changed")
     })
     public void updateHero(
             @ApiParam(value = "The ID of the hero resource", required = true)
             @PathVariable Long id,
-            @RequestBody Hero hero) {
-        // Retrieve hero first. This is the only way to ensure hero already exists prior
-        // to saving.
-        Optional<Hero> currentHero = heroRepository.findById(id);
-        if (currentHero.isEmpty()) {
-            throw new ResourceNotFoundException("Hero not found");
+            @RequestBody Hero hero,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        LOG.debug("updateHero: {} to {}", id, hero.getName());
+        validate(id, validator.validate(hero));
+        rename(id, hero.getName(), ifMatch);
+    }
+
+    /**
+     * Patch a hero. Hero must exist for id. Only the fields present in the patch are changed,
+     * so a patch without a name leaves the hero as it is.
+     * 
+     * @param id
+     *            The id of the hero to patch
+     * @param patch
+     *            The fields to change
+     * @param ifMatch
+     *            ETags the hero must match, optional
+     * @throws ResourceNotFoundException
+     *             if not found.
+     * @throws OptimisticLockingFailureException
+     *             if the hero has changed since the If-Match ETag.
+     * @throws DuplicateKeyException
+     *             if another hero has the name.
+     */
+    @PatchMapping(value = "/{id:\\d+}",
+            consumes = { "application/json", "application/merge-patch+json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @ApiOperation(value = "Patch an existing hero resource.",
+            notes = "Change only the given fields of Hero for id.")
+    @ApiResponses(value = {
+        @ApiResponse(code=400, message="Validation Errors"),
+        @ApiResponse(code=404, message="Hero not found"),
+        @ApiResponse(code=412, message="Hero has changed")
+    })
+    public void patchHero(
+            @ApiParam(value = "The ID of the hero resource", required = true)
+            @PathVariable Long id,
+            @RequestBody JsonNode patch,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        LOG.debug("patchHero: {} with {}", id, patch);
+        if (!patch.has("name")) {
+            if (!heroRepository.existsById(id)) {
+                throw new ResourceNotFoundException("Hero not found");
+            }
+            return;
         }
-        LOG.debug("updateHero: modified name from {} to {}",
-                currentHero.get().getName(), hero.getName());
-        currentHero.get().setName(hero.getName());
-        this.heroRepository.save(currentHero.get());
+        Hero hero = new Hero(patch.get("name").isNull() ? null : patch.get("name").asText());
+        validate(id, validator.validateProperty(hero, "name"));
+        rename(id, hero.getName(), ifMatch);
     }
 
     /**
-     * Delete hero
+     * Delete hero, with a single DELETE.
      * 
      * @param id The id
      * @throws ResourceNotFoundException
@@ -160,13 +401,63 @@ public class HeroController {
             @ApiParam(value = "The ID of the hero resource", required = true)
             @PathVariable Long id) {
         LOG.debug("delete >{}<", id);
-        try {
-            heroRepository.deleteById(id);
-        } catch (EmptyResultDataAccessException e1) {
+        if (heroRepository.deleteOneById(id) == 0) {
             throw new ResourceNotFoundException("Hero not found");
         }
     }
 
+    /**
+     * Create many heroes in one transaction. Each hero is reported on separately, so a hero
+     * with a bad or duplicate name does not stop the others from being created.
+     * 
+     * @param heroes The heroes to create
+     * @return one result per hero, in request order
+     */
+    @PostMapping(value = "/batch",
+            consumes = { "application/json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Create many hero resources.",
+            notes = "Create heroes returning a result for each, with the new Hero or its errors")
+    public List<HeroBatchResult> createHeroes(@RequestBody List<Hero> heroes) {
+        LOG.debug("createHeroes: {} heroes", heroes.size());
+        return heroBatchService.createHeroes(heroes);
+    }
+
+    /**
+     * Update many heroes in one transaction. Each hero must carry its id.
+     * 
+     * @param heroes The heroes to update
+     * @return one result per hero, in request order
+     */
+    @PutMapping(value = "/batch",
+            consumes = { "application/json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Update many existing hero resources.",
+            notes = "Update heroes by id returning a result for each")
+    public List<HeroBatchResult> updateHeroes(@RequestBody List<Hero> heroes) {
+        LOG.debug("updateHeroes: {} heroes", heroes.size());
+        return heroBatchService.updateHeroes(heroes);
+    }
+
+    /**
+     * Delete many heroes in one transaction.
+     * 
+     * @param ids The ids of the heroes to delete
+     * @return one result per id, in request order
+     */
+    @DeleteMapping(value = "/batch",
+            consumes = { "application/json", CBOR, SMILE },
+            produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Delete many hero resources.",
+            notes = "Delete heroes by id returning a result for each")
+    public List<HeroBatchResult> deleteHeroes(@RequestBody List<Long> ids) {
+        LOG.debug("deleteHeroes: {} ids", ids.size());
+        return heroBatchService.deleteHeroes(ids);
+    }
+
     /**
      * Find hero with name containing string (not case sensitive).
      * 
@@ -174,7 +465,7 @@ public class HeroController {
      * @param name The string to search for.
      * @return Iterable with heroes with matching names.
      */
-    @GetMapping(value = "/search/name", produces = "application/json")
+    @GetMapping(value = "/search/name", produces = { "application/json", CBOR, SMILE })
     @ResponseStatus(HttpStatus.OK)
     @ApiOperation(value = "Find hero resources by name.",
         notes= "Find hero resources with names that contain specified text.")
@@ -182,6 +473,207 @@ public class HeroController {
             @ApiParam(value = "Search for heroes with name containing", required=true)
             @RequestParam("contains") String name) {
         LOG.debug("findByName >{}<", name);
-        return heroRepository.findByName(name);
+        return heroReads.findByName(name);
+    }
+
+    /**
+     * Heroes whose names start with the prefix, for search as you type. Answered from memory,
+     * without going to the database.
+     * 
+     * @param prefix The start of the name, not case sensitive
+     * @param limit The most heroes to return, 10 by default
+     * @param typos Whether to also suggest names one typo away from the prefix
+     * @return heroes with matching names, exact matches first, in name order
+     */
+    @GetMapping(value = "/suggest", produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Suggest hero resources by name prefix.",
+        notes= "Find hero resources with names that start with the specified text, optionally allowing one typo.")
+    public List<Hero> suggestHeroes(
+            @ApiParam(value = "The start of the name", required=true)
+            @RequestParam("prefix") String prefix,
+            @ApiParam(value = "The most heroes to return", required=false)
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @ApiParam(value = "Also match names one typo away", required=false)
+            @RequestParam(value = "typos", defaultValue = "false") boolean typos) {
+        LOG.debug("suggestHeroes >{}< limit {} typos {}", prefix, limit, typos);
+        int most = limit == null ? DEFAULT_SUGGESTIONS : Math.max(1, Math.min(limit, MAX_SUGGESTIONS));
+        return heroSuggestions.suggest(prefix, most, typos);
+    }
+
+    /**
+     * Whether a hero has exactly this name. Answered from the in-memory name index, so a name
+     * nobody has costs no database work.
+     * 
+     * @param name The name
+     * @return true if a hero has the name
+     */
+    @GetMapping(value = "/exists", produces = { "application/json", CBOR, SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Check a hero name is taken.",
+        notes= "True if a hero has exactly the specified name.")
+    public boolean heroExists(
+            @ApiParam(value = "The name to check", required=true)
+            @RequestParam("name") String name) {
+        LOG.debug("heroExists >{}<", name);
+        return heroNames.exists(name);
+    }
+
+    /**
+     * Server-sent events for every hero created, updated or deleted, so clients can follow
+     * changes rather than poll the hero list. A client reconnecting with Last-Event-ID is sent
+     * the events it missed, or a reset event if they are no longer kept. Events are written as
+     * the client's socket takes them, without a thread waiting on it.
+     * 
+     * @param lastEventId The id of the last event the client had, optional
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation(value = "Follow hero changes.",
+        notes= "Stream created, updated and deleted events as server-sent events.")
+    public void heroChanges(
+            @ApiParam(value = "The id of the last event received", required = false)
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        LOG.debug("heroChanges after {}", lastEventId);
+        heroChangeFeed.subscribe(lastEventId, request, response);
+    }
+
+    /**
+     * Strong comparison of an If-Match header against the current ETag.
+     */
+    static boolean matches(String ifMatch, String etag) {
+        for (String candidate : ifMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an Accept header prefers CSV to newline delimited JSON. No header, or one taking
+     * anything, gets newline delimited JSON.
+     */
+    static boolean acceptsCsv(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> types = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(types);
+        for (MediaType type : types) {
+            if (type.includes(MediaType.APPLICATION_NDJSON)) {
+                return false;
+            }
+            if (type.includes(MediaType.parseMediaType(CSV))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows gzip, either by name or through *, and not
+     * with q=0.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean gzip = null;
+        boolean any = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                gzip = accepted;
+            } else if (parts[0].trim().equals("*")) {
+                any = accepted;
+            }
+        }
+        return gzip != null ? gzip : any;
+    }
+
+    /**
+     * The versions an If-Match header's strong ETags stand for, or null if it matches any.
+     */
+    static List<Long> matchedVersions(String ifMatch) {
+        List<Long> versions = new ArrayList<>();
+        for (String candidate : ifMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*")) {
+                return null;
+            }
+            if (trimmed.length() > 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+                try {
+                    versions.add(Long.valueOf(trimmed.substring(1, trimmed.length() - 1)));
+                } catch (NumberFormatException e) {
+                    // Not one of ours, so it matches no version.
+                }
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Reject a hero with violations. An unknown id is reported ahead of a bad name, as it was
+     * when the hero was read before being validated on save.
+     */
+    private void validate(Long id, Set<ConstraintViolation<Hero>> violations) {
+        if (!violations.isEmpty()) {
+            if (!heroRepository.existsById(id)) {
+                throw new ResourceNotFoundException("Hero not found");
+            }
+            throw new ConstraintViolationException(violations);
+        }
+    }
+
+    /**
+     * Rename the hero with a single UPDATE. Only when nothing was updated is the hero looked up,
+     * to tell a missing hero from one that has changed since the If-Match ETag.
+     */
+    private void rename(Long id, String name, String ifMatch) {
+        Optional<Long> owner = heroNames.owner(name);
+        if (owner.isPresent() && !owner.get().equals(id)) {
+            throw new DuplicateKeyException("Hero name already exists");
+        }
+        List<Long> versions = ifMatch == null ? null : matchedVersions(ifMatch);
+        int updated;
+        if (versions == null) {
+            updated = heroRepository.updateName(id, name);
+        } else {
+            updated = versions.isEmpty() ? 0 : heroRepository.updateNameAtVersion(id, name, versions);
+        }
+        if (updated == 0) {
+            if (versions != null && heroRepository.existsById(id)) {
+                throw new OptimisticLockingFailureException("Hero has changed");
+            }
+            throw new ResourceNotFoundException("Hero not found");
+        }
+    }
+
+    private List<Hero> heroPage(HeroesRequestFilter filter, HttpServletResponse response) {
+        long after = filter.getAfter() == null ? 0L : filter.getAfter();
+        int limit = filter.getLimit() == null ? DEFAULT_PAGE_SIZE
+                : Math.max(1, Math.min(filter.getLimit(), MAX_PAGE_SIZE));
+        List<Hero> page = heroRepository.findPageAfter(after, PageRequest.of(0, limit));
+        if (page.size() == limit) {
+            String next = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.get(page.size() - 1).getId())
+                    .replaceQueryParam("limit", limit)
+                    .toUriString();
+            response.setHeader("Link", "<" + next + ">; rel=\"next\"");
+        }
+        return page;
     }
 }
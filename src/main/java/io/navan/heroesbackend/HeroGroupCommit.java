@@ -0,0 +1,262 @@
+package io.navan.heroesbackend;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Creates heroes for createHero, one transaction per hero, or, with heroes.group-commit.enabled,
+ * many concurrent creates in one transaction. Creates are then queued and one writer thread saves
+ * them together as soon as the last commit is done: up to heroes.group-commit.max-batch at a
+ * time, waiting up to heroes.group-commit.max-delay after the first for more to arrive. A longer
+ * delay makes larger batches and slower creates; at 0 a batch is whatever queued during the last
+ * commit. Each caller waits for its own hero, with its generated id, or for the exception its own
+ * save would have thrown. A name taken twice in a batch, or already in the hero table, only fails
+ * its own create. Should the batch fail anyway, say to a name taken by a rename meanwhile, its
+ * creates are tried again one by one. Batch sizes are recorded in heroes.group-commit.batch.
+ * A caller waits up to heroes.group-commit.timeout, then fails with a QueryTimeoutException; a
+ * create it takes back from the queue is never made, one already in a batch may yet be. Once the
+ * writer is stopping, creates are made directly instead of queued, and whatever it leaves queued
+ * when it stops is failed rather than left waiting.
+ */
+@Component
+public class HeroGroupCommit {
+
+    public static final String BATCH = "heroes.group-commit.batch";
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroGroupCommit.class);
+
+    @Autowired
+    HeroRepository heroRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${heroes.group-commit.enabled:false}")
+    boolean enabled;
+
+    @Value("${heroes.group-commit.max-batch:256}")
+    int maxBatch;
+
+    @Value("${heroes.group-commit.max-delay:2ms}")
+    Duration maxDelay;
+
+    @Value("${heroes.group-commit.timeout:10s}")
+    Duration timeout;
+
+    private final BlockingQueue<Create> queue = new LinkedBlockingQueue<>();
+    // Held to queue a create, and taken exclusively to stop, so none is queued once stopping
+    private final ReadWriteLock stopping = new ReentrantReadWriteLock();
+    private volatile boolean running;
+    private Thread writer;
+    private DistributionSummary batchSizes;
+
+    /**
+     * A create waiting for its batch to commit.
+     */
+    private static final class Create {
+        final Hero hero;
+        final CompletableFuture<Hero> result = new CompletableFuture<>();
+        Hero created;
+        RuntimeException failure;
+
+        Create(String name) {
+            this.hero = new Hero(name);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        batchSizes = DistributionSummary.builder(BATCH)
+                .description("Heroes created per transaction by group commit")
+                .register(meterRegistry);
+        running = true;
+        writer = new Thread(this::writeGroups, "hero-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Group commit of up to {} heroes, waiting up to {}", maxBatch, maxDelay);
+    }
+
+    @PreDestroy
+    void close() throws InterruptedException {
+        if (writer != null) {
+            stopping.writeLock().lock();
+            try {
+                running = false;
+            } finally {
+                stopping.writeLock().unlock();
+            }
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+            Create left;
+            while ((left = queue.poll()) != null) {
+                left.result.completeExceptionally(new QueryTimeoutException("Group commit stopped"));
+            }
+        }
+    }
+
+    /**
+     * Create a hero. Any id given is ignored.
+     *
+     * @param hero The hero to create
+     * @return the created hero, with its id
+     * @throws ConstraintViolationException if the hero is not valid
+     * @throws DuplicateKeyException if the name is taken
+     * @throws QueryTimeoutException if the hero's batch has not committed within the timeout
+     */
+    public Hero save(Hero hero) {
+        if (!running) {
+            return heroRepository.save(hero);
+        }
+        Set<ConstraintViolation<Hero>> violations = validator.validate(hero);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+        Create create = new Create(hero.getName());
+        stopping.readLock().lock();
+        try {
+            if (!running) {
+                return heroRepository.save(hero);
+            }
+            queue.add(create);
+        } finally {
+            stopping.readLock().unlock();
+        }
+        try {
+            return create.result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException(queue.remove(create)
+                    ? "Timed out waiting to create hero " + hero.getName()
+                    : "Timed out waiting to create hero " + hero.getName() + ", which may yet be created", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for hero " + hero.getName(), e);
+        }
+    }
+
+    /**
+     * The writer thread: gathers a batch and commits it, until closed and nothing is queued.
+     */
+    private void writeGroups() {
+        List<Create> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Create first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + maxDelay.toNanos();
+                long wait;
+                while (batch.size() < maxBatch && (wait = deadline - System.nanoTime()) > 0) {
+                    Create next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("Group commit of {} heroes failed", batch.size(), e);
+                batch.forEach(create -> create.result.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Save the batch in one transaction, or each create on its own if that fails. Callers only
+     * hear once the outcome is committed.
+     */
+    private void commit(List<Create> batch) {
+        batchSizes.record(batch.size());
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Set<String> taken = new HashSet<>();
+                List<String> names = new ArrayList<>(batch.size());
+                batch.forEach(create -> names.add(create.hero.getName()));
+                heroRepository.findByNameIn(names).forEach(hero -> taken.add(hero.getName()));
+                List<Create> toSave = new ArrayList<>(batch.size());
+                List<Hero> heroes = new ArrayList<>(batch.size());
+                for (Create create : batch) {
+                    if (!taken.add(create.hero.getName())) {
+                        create.failure = new DuplicateKeyException("Hero name already exists");
+                    } else {
+                        toSave.add(create);
+                        heroes.add(create.hero);
+                    }
+                }
+                int i = 0;
+                for (Hero created : heroRepository.saveAll(heroes)) {
+                    toSave.get(i++).created = created;
+                }
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("Group commit of {} heroes failed, saving them one by one: {}", batch.size(), e.toString());
+            batch.forEach(this::commitAlone);
+            return;
+        }
+        for (Create create : batch) {
+            if (create.failure != null) {
+                create.result.completeExceptionally(create.failure);
+            } else {
+                create.result.complete(create.created);
+            }
+        }
+    }
+
+    private void commitAlone(Create create) {
+        try {
+            create.result.complete(heroRepository.save(new Hero(create.hero.getName())));
+        } catch (RuntimeException e) {
+            create.result.completeExceptionally(e);
+        }
+    }
+}
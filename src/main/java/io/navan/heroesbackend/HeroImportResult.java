@@ -0,0 +1,96 @@
+package io.navan.heroesbackend;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.navan.system.ValidationError;
+
+/**
+ * Outcome of POST /heroes/import. Rows are counted from 1, not counting a CSV header.
+ * An import stopped early, on a name conflict with onConflict=fail or on a row that could not
+ * be read, carries the error and the row it stopped at; the rows before it stay imported.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HeroImportResult {
+
+    private long read;
+    private long created;
+    private long skipped;
+    private long invalid;
+    private long millis;
+    private long rowsPerSecond;
+    private Long row;
+    private ValidationError error;
+
+    public long getRead() {
+        return read;
+    }
+
+    public void setRead(long read) {
+        this.read = read;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    /**
+     * @return rows not created as their name was taken
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(long skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return rows not created as they were not valid heroes
+     */
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public void setInvalid(long invalid) {
+        this.invalid = invalid;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * @return rows read a second, over the whole import
+     */
+    public long getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public void setRowsPerSecond(long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    public Long getRow() {
+        return row;
+    }
+
+    public void setRow(Long row) {
+        this.row = row;
+    }
+
+    public ValidationError getError() {
+        return error;
+    }
+
+    public void setError(ValidationError error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,356 @@
+package io.navan.heroesbackend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.navan.system.ValidationError;
+
+/**
+ * Loads heroes from newline delimited JSON or CSV for POST /heroes/import. Rows are parsed one
+ * at a time as they are read from the stream, and created heroes.import.batch-size at a time
+ * with HeroRepository.insertAll, a transaction and a JDBC batch a batch, so the import itself
+ * holds no more than a batch however long the stream is. The names of the heroes it creates
+ * are held by HeroNames and HeroSuggestions, as every hero's are. Only names are read: heroes
+ * get new ids, so an export imported again is created afresh rather than restored. A row whose
+ * name is taken, in the table or earlier in the stream, is skipped, or with OnConflict.FAIL
+ * stops the import, with the rows before it created and none after. Rows that are not valid heroes are skipped either way.
+ * Subscribers to hero changes are sent a batch of more than heroes.changes.log-size heroes as one
+ * reset, as HeroChangeFeed does any transaction that large, rather than an event per hero.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HeroImporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroImporter.class);
+
+    private static final int BUFFER_SIZE = 65536;
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    public enum OnConflict {
+        SKIP, FAIL;
+
+        /**
+         * @return the value named, in any case, null if there is none
+         */
+        public static OnConflict of(String name) {
+            for (OnConflict value : values()) {
+                if (value.name().equalsIgnoreCase(name)) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    private enum Outcome {
+        CREATED, TAKEN, INVALID
+    }
+
+    @Autowired
+    HeroRepository heroRepository;
+
+    @Autowired
+    HeroNames heroNames;
+
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${heroes.import.batch-size:5000}")
+    int batchSize;
+
+    /**
+     * Rows read one hero at a time.
+     */
+    private interface Rows {
+        /**
+         * @return the next row's hero, null at the end of the stream
+         * @throws JsonProcessingException or IllegalArgumentException if the row cannot be read
+         */
+        Hero next() throws IOException;
+    }
+
+    /**
+     * Create a hero for each row of the stream.
+     *
+     * @param in The stream. Not closed.
+     * @param format The stream's format
+     * @param onConflict What to do with a row whose name is taken
+     * @return the counts of rows read, created, skipped and invalid, and the error that stopped
+     *         the import early if one did
+     * @throws IOException if the stream cannot be read
+     */
+    public HeroImportResult importHeroes(InputStream in, Format format, OnConflict onConflict) throws IOException {
+        long started = System.nanoTime();
+        HeroImportResult result = new HeroImportResult();
+        Rows rows = format == Format.CSV ? new CsvRows(in) : new NdjsonRows(objectMapper.getFactory().createParser(in));
+        List<Hero> batch = new ArrayList<>(batchSize);
+        try {
+            for (Hero hero; (hero = rows.next()) != null;) {
+                result.setRead(result.getRead() + 1);
+                batch.add(hero);
+                if (batch.size() == batchSize && !write(batch, result, onConflict)) {
+                    return finish(result, started);
+                }
+            }
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            if (write(batch, result, onConflict)) {
+                result.setRow(result.getRead() + 1);
+                result.setError(unreadable(e.getMessage()));
+            }
+            return finish(result, started);
+        }
+        write(batch, result, onConflict);
+        return finish(result, started);
+    }
+
+    /**
+     * Create the batch's heroes and count the outcomes, then clear it. Names are checked
+     * against HeroNames and the batch itself, and the heroes left are inserted together. Should
+     * one of their names be taken meanwhile, they are inserted a hero at a time instead.
+     *
+     * @return false if the import is to stop here
+     */
+    private boolean write(List<Hero> batch, HeroImportResult result, OnConflict onConflict) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        long firstRow = result.getRead() - batch.size() + 1;
+        Outcome[] outcomes = new Outcome[batch.size()];
+        int stop = batch.size();
+        List<Hero> toCreate = new ArrayList<>(batch.size());
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < stop; i++) {
+            Hero hero = batch.get(i);
+            if (!validator.validate(hero).isEmpty()) {
+                outcomes[i] = Outcome.INVALID;
+            } else if (heroNames.exists(hero.getName()) || !seen.add(hero.getName())) {
+                outcomes[i] = Outcome.TAKEN;
+                stop = onConflict == OnConflict.FAIL ? i : stop;
+            } else {
+                outcomes[i] = Outcome.CREATED;
+                toCreate.add(hero);
+            }
+        }
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    heroRepository.insertAll(toCreate));
+        } catch (DuplicateKeyException e) {
+            for (int i = 0; i < stop; i++) {
+                if (outcomes[i] == Outcome.CREATED && !createAlone(batch.get(i))) {
+                    outcomes[i] = Outcome.TAKEN;
+                    stop = onConflict == OnConflict.FAIL ? i : stop;
+                }
+            }
+        }
+        for (int i = 0; i < stop; i++) {
+            if (outcomes[i] == Outcome.CREATED) {
+                result.setCreated(result.getCreated() + 1);
+            } else if (outcomes[i] == Outcome.INVALID) {
+                result.setInvalid(result.getInvalid() + 1);
+            } else {
+                result.setSkipped(result.getSkipped() + 1);
+            }
+        }
+        boolean stopped = stop < batch.size();
+        batch.clear();
+        if (stopped) {
+            result.setRow(firstRow + stop);
+            result.setError(HeroBatchService.alreadyExists());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the hero's name is taken
+     */
+    private boolean createAlone(Hero hero) {
+        // Made already, by a repository whose inserts are not undone when a later one fails
+        if (hero.getId() != null && heroNames.owner(hero.getName()).filter(hero.getId()::equals).isPresent()) {
+            return true;
+        }
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    heroRepository.insertAll(List.of(hero)));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private HeroImportResult finish(HeroImportResult result, long started) {
+        long nanos = Math.max(1, System.nanoTime() - started);
+        result.setMillis(nanos / 1_000_000);
+        result.setRowsPerSecond(result.getRead() * 1_000_000_000 / nanos);
+        LOG.info("Imported {} rows in {} ms, {} rows/s: {} created, {} skipped, {} invalid",
+                result.getRead(), result.getMillis(), result.getRowsPerSecond(),
+                result.getCreated(), result.getSkipped(), result.getInvalid());
+        return result;
+    }
+
+    private static ValidationError unreadable(String message) {
+        return new ValidationError(HttpStatus.BAD_REQUEST, message,
+                new ValidationError.Error(Hero.class.getName(), "*", "Unreadable"));
+    }
+
+    /**
+     * Newline delimited JSON, one {"name":..} object a row. Other fields are ignored.
+     */
+    private static final class NdjsonRows implements Rows {
+        private final JsonParser parser;
+
+        NdjsonRows(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public Hero next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a hero object");
+            }
+            String name = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && field.equals("name")) {
+                    name = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new Hero(name);
+        }
+    }
+
+    /**
+     * CSV with a header line naming a name column. Other columns, and blank lines, are ignored.
+     */
+    private static final class CsvRows implements Rows {
+        private final CsvReader csv;
+        private int nameColumn = -1;
+
+        CsvRows(InputStream in) {
+            this.csv = new CsvReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE));
+        }
+
+        @Override
+        public Hero next() throws IOException {
+            if (nameColumn < 0) {
+                List<String> header = csv.record();
+                if (header == null) {
+                    return null;
+                }
+                for (int i = 0; i < header.size() && nameColumn < 0; i++) {
+                    // Spreadsheets may start the file with a byte order mark
+                    if (header.get(i).replace("\uFEFF", "").trim().equalsIgnoreCase("name")) {
+                        nameColumn = i;
+                    }
+                }
+                if (nameColumn < 0) {
+                    throw new IllegalArgumentException("The CSV header has no name column");
+                }
+            }
+            List<String> record;
+            do {
+                record = csv.record();
+            } while (record != null && record.size() == 1 && record.get(0).isEmpty());
+            if (record == null) {
+                return null;
+            }
+            return new Hero(nameColumn < record.size() ? record.get(nameColumn) : null);
+        }
+    }
+
+    /**
+     * Reads CSV records one at a time. Fields are split on commas; a field in quotes may hold
+     * commas, line breaks and doubled quotes. Records end with a line feed, a carriage return
+     * before it dropped.
+     */
+    static final class CsvReader {
+        private final Reader reader;
+        private final StringBuilder field = new StringBuilder();
+
+        CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the next record's fields, null at the end of the stream
+         * @throws IllegalArgumentException if a quoted field is not closed
+         */
+        List<String> record() throws IOException {
+            int c = reader.read();
+            if (c < 0) {
+                return null;
+            }
+            List<String> fields = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        throw new IllegalArgumentException("A quoted CSV field is not closed");
+                    }
+                    if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c < 0) {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = reader.read();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.navan.heroesbackend;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory index of the names heroes have and which hero has each, so that a name can be
+ * checked without going to the database. Loaded from the hero tables, see HeroTables, at startup
+ * and kept in step with them by HeroRowTrigger, which tells it of every write to a hero however
+ * it is made, and of every write rolled back, in the order the rows were locked.
+ * A name is let go only by the hero having it, so a rename or delete told late cannot free a name
+ * another hero has since taken. A write still in its transaction shows here as the database's
+ * unique index has it, so a name it frees may yet be taken back by a rollback.
+ * Names are matched exactly, as the ak_hero constraint does. The constraint stays the final
+ * check, so a duplicate the index misses is still rejected, just further along.
+ */
+@Component
+public class HeroNames implements HeroRowTrigger.Listener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroNames.class);
+
+    @Autowired
+    HeroTables heroTables;
+
+    private final Map<String, Long> owners = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void load() {
+        for (JdbcTemplate heroTable : heroTables.all()) {
+            HeroRowTrigger.listen(heroTable, this);
+            heroTable.query("select id, name from hero", rs -> {
+                if (rs.getString(2) != null) {
+                    owners.putIfAbsent(rs.getString(2), rs.getLong(1));
+                }
+            });
+        }
+        LOG.info("Indexed {} hero names", owners.size());
+    }
+
+    @PreDestroy
+    void close() {
+        HeroRowTrigger.stopListening(this);
+    }
+
+    /**
+     * @param name The name
+     * @return the id of the hero having the name, if any
+     */
+    public Optional<Long> owner(String name) {
+        return name == null ? Optional.empty() : Optional.ofNullable(owners.get(name));
+    }
+
+    /**
+     * @param name The name
+     * @return true if a hero has the name
+     */
+    public boolean exists(String name) {
+        return owner(name).isPresent();
+    }
+
+    @Override
+    public void changed(Hero before, Hero after) {
+        if (before != null && after != null && before.getName() != null
+                && before.getName().equals(after.getName())) {
+            return;
+        }
+        if (before != null && before.getName() != null) {
+            owners.remove(before.getName(), before.getId());
+        }
+        if (after != null && after.getName() != null) {
+            owners.put(after.getName(), after.getId());
+        }
+    }
+}
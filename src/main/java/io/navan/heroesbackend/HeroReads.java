@@ -0,0 +1,67 @@
+package io.navan.heroesbackend;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.navan.system.ReplicaRoutingDataSource;
+import io.navan.system.SingleFlight;
+import io.navan.system.WriteTracker;
+
+/**
+ * The hero reads most often made many times at once, a hero by id and a search by name, with
+ * identical concurrent reads coalesced into one repository call, see SingleFlight.
+ * Requests held to the primary database are only coalesced with each other, as their results
+ * can be newer than the replica's.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HeroReads {
+
+    @Autowired
+    HeroRepository heroRepository;
+
+    @Autowired
+    WriteTracker writeTracker;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${heroes.single-flight.timeout:2s}")
+    Duration timeout;
+
+    private SingleFlight<List<Object>, Optional<Hero>> byId;
+    private SingleFlight<List<Object>, Iterable<Hero>> byName;
+
+    @PostConstruct
+    void init() {
+        byId = new SingleFlight<>("findById", writeTracker, timeout, meterRegistry);
+        byName = new SingleFlight<>("findByName", writeTracker, timeout, meterRegistry);
+    }
+
+    /**
+     * @param id The hero's id
+     * @return the hero, as HeroRepository.findById
+     */
+    public Optional<Hero> findById(Long id) {
+        return byId.call(List.of(id, ReplicaRoutingDataSource.isHeldToPrimary()),
+                () -> heroRepository.findById(id));
+    }
+
+    /**
+     * @param name The text to search for
+     * @return heroes with names containing the text, as HeroRepository.findByName
+     */
+    public Iterable<Hero> findByName(String name) {
+        return byName.call(List.of(name, ReplicaRoutingDataSource.isHeldToPrimary()),
+                () -> heroRepository.findByName(name));
+    }
+}
@@ -1,12 +1,195 @@
 package io.navan.heroesbackend;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.navan.system.CacheConfig;
+
+/**
+ * Heroes by id are read through the heroes cache and name searches through the heroSearches cache.
+ * Writes replace or evict the hero written and clear all cached searches.
+ * Behind those, the queries returning heroes for a search are also in Hibernate's query cache,
+ * which any write to a hero through Hibernate invalidates. That covers the native trigram query
+ * too, as it returns Hero entities and the trigram tables only change when the hero table does.
+ * Reads are read-only transactions, findAll and findById as in every Spring Data repository, so
+ * they go to the replica database unless the request is held to the primary. What they read is
+ * only cached while the replica cannot be behind, see ReplicaCacheGuard.
+ */
+public interface HeroRepository extends CrudRepository<Hero, Long>, HeroBulkInserts { 
+
+    @Override
+    @Cacheable(cacheNames = CacheConfig.HEROES, unless = "#result == null || !@replicaCacheGuard.mayCache()")
+    public Optional<Hero> findById(Long id);
+
+    @Override
+    @Caching(put = @CachePut(cacheNames = CacheConfig.HEROES, key = "#result.id"),
+            evict = @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true))
+    public <S extends Hero> S save(S hero);
+
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, key = "#p0"),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    public void deleteById(Long id);
+
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, allEntries = true),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    public <S extends Hero> Iterable<S> saveAll(Iterable<S> heroes);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true)
+    public void insertAll(List<Hero> heroes);
+
+    /**
+     * Delete heroes with a single statement, without loading them first.
+     *
+     * @return the number of heroes deleted
+     */
+    @RestResource(exported = false)
+    @Modifying
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, allEntries = true),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    @Query("delete from Hero h where h.id in :ids")
+    public int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
 
-public interface HeroRepository extends CrudRepository<Hero, Long> { 
+    /**
+     * Rename a hero with a single statement, without loading it first. Bumps the version as
+     * saving the hero would. The name is not validated here.
+     *
+     * @return the number of heroes updated, 0 if there is no hero with the id
+     */
+    @RestResource(exported = false)
+    @Transactional
+    @Modifying
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, key = "#p0"),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    @Query("update Hero h set h.name = :name, h.version = h.version + 1 where h.id = :id")
+    public int updateName(@Param("id") Long id, @Param("name") String name);
+
+    /**
+     * Rename a hero as {@link #updateName(Long, String)} does, but only if it is at one of the
+     * given versions.
+     *
+     * @return the number of heroes updated, 0 if there is no hero with the id at those versions
+     */
+    @RestResource(exported = false)
+    @Transactional
+    @Modifying
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, key = "#p0"),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    @Query("update Hero h set h.name = :name, h.version = h.version + 1"
+            + " where h.id = :id and h.version in :versions")
+    public int updateNameAtVersion(@Param("id") Long id, @Param("name") String name,
+            @Param("versions") Collection<Long> versions);
+
+    /**
+     * Delete a hero with a single statement, without loading it first.
+     *
+     * @return the number of heroes deleted, 0 if there is no hero with the id
+     */
+    @RestResource(exported = false)
+    @Transactional
+    @Modifying
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.HEROES, key = "#p0"),
+            @CacheEvict(cacheNames = CacheConfig.HERO_SEARCHES, allEntries = true) })
+    @Query("delete from Hero h where h.id = :id")
+    public int deleteOneById(@Param("id") Long id);
+
+    @RestResource(exported = false)
+    @Query("select h.id from Hero h where h.id in :ids")
+    public List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * @return heroes having exactly one of the given names
+     */
+    @RestResource(exported = false)
+    public List<Hero> findByNameIn(Collection<String> names);
+
+    /**
+     * Heroes with names containing the given text, ignoring case. Narrows the search with the
+     * hero_trigram index when it can, otherwise scans every hero.
+     */
     @RestResource(path = "name", rel="name")
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfig.HERO_SEARCHES, condition = "#p0 != null",
+            unless = "!@replicaCacheGuard.mayCache()")
+    public default Iterable<Hero> findByName(String name) {
+        if (!Trigrams.canNarrow(name)) {
+            return scanByName(name);
+        }
+        return narrowByTrigrams(name);
+    }
+
+    @RestResource(exported = false)
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     @Query("from Hero h where lower(h.name) like CONCAT('%', lower(:contains), '%')")
-    public Iterable<Hero> findByName(@Param("contains") String name);  
+    public Iterable<Hero> scanByName(@Param("contains") String name);  
+
+    /**
+     * Only heroes having every trigram of the search text can contain it, so start from the
+     * heroes having its rarest trigram. None at all if one of its trigrams belongs to no hero.
+     * The LIKE on the candidates keeps the result identical to {@link #scanByName(String)}.
+     */
+    public default Iterable<Hero> narrowByTrigrams(String name) {
+        Set<String> grams = Trigrams.of(name);
+        List<Object[]> counts = countTrigrams(grams);
+        if (counts.size() < grams.size()) {
+            return Collections.emptyList();
+        }
+        Object[] rarest = counts.get(0);
+        for (Object[] count : counts) {
+            if (((Number) count[1]).longValue() < ((Number) rarest[1]).longValue()) {
+                rarest = count;
+            }
+        }
+        return findByTrigram(name, (String) rarest[0]);
+    }
+
+    /**
+     * @return gram and number of heroes having it, for the given grams that any hero has
+     */
+    @RestResource(exported = false)
+    @Query(value = "select gram, heroes from hero_trigram_count where gram in (:grams) and heroes > 0",
+            nativeQuery = true)
+    public List<Object[]> countTrigrams(@Param("grams") Collection<String> grams);
+
+    @RestResource(exported = false)
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    @Query(value = "select h.* from hero h join hero_trigram t on t.hero_id = h.id and t.gram = :gram"
+            + " where lower(h.name) like CONCAT('%', lower(:contains), '%')",
+            nativeQuery = true)
+    public Iterable<Hero> findByTrigram(@Param("contains") String name, @Param("gram") String gram);
+
+    /**
+     * Keyset page: the heroes following id {@code after} in id order. Walks the primary key
+     * index from {@code after}, so the cost of a page does not depend on how deep it is.
+     */
+    @RestResource(exported = false)
+    @Transactional(readOnly = true)
+    @Query("from Hero h where h.id > :after order by h.id")
+    public List<Hero> findPageAfter(@Param("after") Long after, Pageable pageable);
 }
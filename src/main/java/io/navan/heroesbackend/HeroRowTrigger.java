@@ -0,0 +1,136 @@
+package io.navan.heroesbackend;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.h2.api.Trigger;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * H2 row trigger that tells the application's in-memory views of the hero table, such as
+ * HeroNames, of every change to it, see schema.sql. Living in the database means every write is
+ * seen, whether it comes through HeroRepository or plain JDBC, and in the order the database
+ * made it: a row's changes are told while its lock is held, so two writes to one hero, or to
+ * one name, are told in the order they commit. The trigger also fires on rollback, telling the
+ * change being undone as the row going back, so a view ends up with what was committed.
+ * The H2 databases used here run in the application's JVM, so listeners are found by the name
+ * of the database, which tells apart the databases of several application contexts.
+ */
+public class HeroRowTrigger implements Trigger {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int VERSION = 2;
+
+    private static final Map<String, List<Listener>> LISTENERS = new ConcurrentHashMap<>();
+
+    // Set while writing changes the listeners have already been told of, see quietly
+    private static final ThreadLocal<Boolean> QUIET = new ThreadLocal<>();
+
+    private String database;
+
+    /**
+     * Told of a change to a hero row. Called on the thread making the change, inside its
+     * transaction, so it must be quick and must not throw.
+     */
+    public interface Listener {
+        /**
+         * @param before The hero before, null if it was inserted
+         * @param after The hero after, null if it was deleted
+         */
+        void changed(Hero before, Hero after);
+    }
+
+    /**
+     * Tell the listener of every change to the hero table of the database.
+     */
+    public static void listen(JdbcTemplate database, Listener listener) {
+        LISTENERS.computeIfAbsent(database(database), name -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * Stop telling the listener of changes, in whichever databases. Asks none of them, as they
+     * may already be closed on shutdown.
+     */
+    public static void stopListening(Listener listener) {
+        LISTENERS.values().forEach(listeners -> listeners.remove(listener));
+    }
+
+    /**
+     * Tell the listeners of the database of a change, as the trigger would have. For a
+     * repository that changes heroes in memory before writing them to the table.
+     *
+     * @param from The listener making the change, which is not told of it, null for none
+     */
+    public static void changed(String database, Listener from, Hero before, Hero after) {
+        List<Listener> listeners = LISTENERS.get(database);
+        if (listeners != null) {
+            for (Listener listener : listeners) {
+                if (listener != from) {
+                    listener.changed(before, after);
+                }
+            }
+        }
+    }
+
+    /**
+     * Make writes the listeners have already been told of through {@link #changed}, without
+     * the trigger telling them again.
+     */
+    public static void quietly(Runnable writes) {
+        QUIET.set(Boolean.TRUE);
+        try {
+            writes.run();
+        } finally {
+            QUIET.remove();
+        }
+    }
+
+    /**
+     * @return the name of the database, as the trigger knows it
+     */
+    public static String database(JdbcTemplate database) {
+        return database.queryForObject("call database()", String.class);
+    }
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName,
+            boolean before, int type) throws SQLException {
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("call database()")) {
+            rs.next();
+            database = rs.getString(1);
+        }
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) {
+        if (QUIET.get() == null) {
+            changed(database, null, hero(oldRow), hero(newRow));
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+
+    private static Hero hero(Object[] row) {
+        if (row == null) {
+            return null;
+        }
+        Hero hero = new Hero((String) row[NAME]);
+        hero.setId(((Number) row[ID]).longValue());
+        hero.setVersion(row[VERSION] == null ? null : ((Number) row[VERSION]).longValue());
+        return hero;
+    }
+}
@@ -0,0 +1,139 @@
+package io.navan.heroesbackend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.navan.system.MetricsConfig;
+
+/**
+ * The full hero list as GET /heroes sends it, serialized once and kept along with a gzipped
+ * copy, so the unfiltered list goes out without reading heroes or running Jackson.
+ * A snapshot is tagged with the hero_change_counter it was built at, and the first request to
+ * find the counter moved on builds the next one. Reading the counter is then all a request
+ * costs, and since the counter is kept by a trigger, writes made around the application are
+ * noticed too. Building one is timed as heroes.serialization, type=json and body=snapshot.
+ */
+@Component
+public class HeroSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroSnapshot.class);
+
+    @Autowired
+    HeroRepository heroRepository;
+
+    @Autowired
+    HeroChanges heroChanges;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private volatile Snapshot snapshot;
+    private Timer timer;
+
+    @PostConstruct
+    void init() {
+        timer = MetricsConfig.serializationTimer(meterRegistry, "json", MetricsConfig.SNAPSHOT);
+    }
+
+    /**
+     * @return a snapshot at least as recent as the hero table when called
+     */
+    public Snapshot current() {
+        long changes = heroChanges.changes();
+        Snapshot current = snapshot;
+        if (current != null && current.changes >= changes) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && current.changes >= changes) {
+                return current;     // built while this request waited
+            }
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            snapshot = readOnly.execute(status -> build());
+            return snapshot;
+        }
+    }
+
+    /**
+     * Read the counter before the heroes, so a change made in between leaves the snapshot
+     * looking older than it is and gets it rebuilt, rather than being missed. Both are read in
+     * the one transaction, and so from the one database, replica or primary.
+     */
+    private Snapshot build() {
+        long changes = heroChanges.changes();
+        Iterable<Hero> heroes = heroRepository.findAll();
+        long start = System.nanoTime();
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(heroes);
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream(json.length / 4 + 64);
+            // Compressed once per change, so worth the best compression.
+            try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            }) {
+                gzip.write(json);
+            }
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            LOG.debug("Hero snapshot at {} changes: {} bytes, {} gzipped",
+                    changes, json.length, gzipped.size());
+            return new Snapshot(changes, json, gzipped.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The list as JSON, plain and gzipped. The arrays are shared by every request served from
+     * the snapshot and must not be changed.
+     */
+    public static final class Snapshot {
+
+        private final long changes;
+        private final byte[] json;
+        private final byte[] gzip;
+
+        Snapshot(long changes, byte[] json, byte[] gzip) {
+            this.changes = changes;
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        public long getChanges() {
+            return changes;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+    }
+}
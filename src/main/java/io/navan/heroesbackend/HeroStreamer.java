@@ -0,0 +1,174 @@
+package io.navan.heroesbackend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.navan.system.MetricsConfig;
+
+/**
+ * Streams the hero table straight from a forward-only JDBC cursor into an output stream.
+ * No Hero entities are built and nothing but the current row is held in memory, so memory use
+ * stays flat no matter how many heroes there are. Writes are timed as heroes.serialization,
+ * tagged by media type and body=stream, the time including the reading they are interleaved with.
+ */
+@Component
+public class HeroStreamer {
+
+    static final int FETCH_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String SELECT_ALL = "select id, name from hero order by id";
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private JdbcTemplate cursor;
+    private Timer jsonTimer;
+    private Timer ndjsonTimer;
+    private Timer csvTimer;
+
+    @PostConstruct
+    void init() {
+        cursor = new JdbcTemplate(dataSource);
+        cursor.setFetchSize(FETCH_SIZE);
+        jsonTimer = MetricsConfig.serializationTimer(meterRegistry, "json", MetricsConfig.STREAM);
+        ndjsonTimer = MetricsConfig.serializationTimer(meterRegistry, "ndjson", MetricsConfig.STREAM);
+        csvTimer = MetricsConfig.serializationTimer(meterRegistry, "csv", MetricsConfig.STREAM);
+    }
+
+    /**
+     * Write all heroes as a JSON array, same shape as the one returned by GET /heroes.
+     *
+     * @param out The stream to write to. Not closed.
+     * @throws IOException if the client goes away
+     */
+    public void writeJsonArray(OutputStream out) throws IOException {
+        MetricsConfig.time(jsonTimer, () -> jsonArray(out));
+    }
+
+    private void jsonArray(OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.writeStartArray();
+            query(rs -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", rs.getLong(1));
+                    generator.writeStringField("name", rs.getString(2));
+                    generator.writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Write all heroes as newline delimited JSON, one {"id":..,"name":..} object a line, as
+     * POST /heroes/import reads it.
+     *
+     * @param out The stream to write to. Not closed.
+     * @throws IOException if the client goes away
+     */
+    public void writeNdjson(OutputStream out) throws IOException {
+        MetricsConfig.time(ndjsonTimer, () -> ndjson(out));
+    }
+
+    private void ndjson(OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.setRootValueSeparator(null);
+            query(rs -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", rs.getLong(1));
+                    generator.writeStringField("name", rs.getString(2));
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Write all heroes as CSV, a header line of id,name and then a line a hero, names quoted
+     * where they need to be.
+     *
+     * @param out The stream to write to. Not closed.
+     * @throws IOException if the client goes away
+     */
+    public void writeCsv(OutputStream out) throws IOException {
+        MetricsConfig.time(csvTimer, () -> csv(out));
+    }
+
+    private void csv(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write("id,name\r\n");
+        try {
+            query(rs -> {
+                try {
+                    writer.write(Long.toString(rs.getLong(1)));
+                    writer.write(',');
+                    writer.write(csvField(rs.getString(2)));
+                    writer.write("\r\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * The value as a CSV field, in quotes, with quotes doubled, if it holds a comma, a quote or
+     * a line break.
+     */
+    static String csvField(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+
+    void query(RowCallbackHandler handler) {
+        cursor.query(SELECT_ALL, handler);
+    }
+}
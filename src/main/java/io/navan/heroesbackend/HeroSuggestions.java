@@ -0,0 +1,391 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hero names by prefix for GET /heroes/suggest, answered from memory as the user types.
+ * Names are held lower-cased in a radix trie, a trie whose edges are labelled with as many
+ * characters as there are no branches over, and each hero's id is kept at the node its name
+ * ends at. Loaded from the hero tables, see HeroTables, at startup and kept in step with them by
+ * HeroRowTrigger, which tells of every write to a hero, with the name it had before, while the
+ * row is locked.
+ * Two renames of one hero are therefore applied in the order they commit, and a write rolled
+ * back is undone here too.
+ * Suggestions come in name order. With typos allowed, prefixes of {@value #MIN_TYPO_PREFIX}
+ * characters or more also match names starting within one edit of them (a character added,
+ * dropped or changed), after the names that match exactly.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class HeroSuggestions implements HeroRowTrigger.Listener {
+
+    /** Shorter prefixes are within one edit of too many names to be of use. */
+    static final int MIN_TYPO_PREFIX = 3;
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeroSuggestions.class);
+
+    private static final String[] NO_EDGES = {};
+    private static final Node[] NO_CHILDREN = {};
+    private static final long[] NO_IDS = {};
+    private static final String[] NO_NAMES = {};
+
+    @Autowired
+    HeroTables heroTables;
+
+    private final Node root = new Node();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
+
+    /**
+     * A point in the trie. Edges are kept in order of their labels, which never share a first
+     * character. The heroes whose lower-cased name ends here are kept in parallel arrays, as
+     * names differing only in case end at the same node.
+     */
+    private static final class Node {
+        String[] edges = NO_EDGES;
+        Node[] children = NO_CHILDREN;
+        long[] ids = NO_IDS;
+        String[] names = NO_NAMES;
+    }
+
+    @PostConstruct
+    void load() {
+        for (JdbcTemplate heroTable : heroTables.all()) {
+            HeroRowTrigger.listen(heroTable, this);
+            heroTable.query("select id, name from hero", rs -> {
+                add(rs.getLong(1), rs.getString(2));
+            });
+        }
+        LOG.info("Indexed {} hero names for suggestions", size());
+    }
+
+    @PreDestroy
+    void close() {
+        HeroRowTrigger.stopListening(this);
+    }
+
+    /**
+     * Record a hero's name, unless the hero is already there under it.
+     *
+     * @param id The hero's id
+     * @param name Its name
+     */
+    public void add(long id, String name) {
+        if (name == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (insert(root, key(name), id, name)) {
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void changed(Hero before, Hero after) {
+        if (before != null && after != null && before.getName() != null
+                && before.getName().equals(after.getName())) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (before != null && before.getName() != null
+                    && remove(root, key(before.getName()), before.getId(), before.getName())) {
+                size--;
+            }
+            if (after != null && after.getName() != null
+                    && insert(root, key(after.getName()), after.getId(), after.getName())) {
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix The start of the names, in any case
+     * @param limit The most heroes to return
+     * @param typos Whether to match prefixes one edit away too
+     * @return heroes with their ids and names, exact matches first, each in name order
+     */
+    public List<Hero> suggest(String prefix, int limit, boolean typos) {
+        String key = key(prefix);
+        Map<Long, String> found = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            Node node = find(key);
+            if (node != null) {
+                collect(node, found, limit);
+            }
+            if (typos && key.length() >= MIN_TYPO_PREFIX && found.size() < limit) {
+                int[] row = new int[key.length() + 1];
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = j;
+                }
+                near(root, key, row, found, limit);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hero> heroes = new ArrayList<>(found.size());
+        found.forEach((id, name) -> {
+            Hero hero = new Hero(name);
+            hero.setId(id);
+            heroes.add(hero);
+        });
+        return heroes;
+    }
+
+    /**
+     * @return the number of heroes indexed
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the node under which all names starting with the key are, null if there are none
+     */
+    private Node find(String key) {
+        Node node = root;
+        int at = 0;
+        while (at < key.length()) {
+            int edge = edge(node, key.charAt(at));
+            if (edge < 0) {
+                return null;
+            }
+            String label = node.edges[edge];
+            int common = common(label, key, at);
+            if (at + common == key.length()) {
+                return node.children[edge];
+            }
+            if (common < label.length()) {
+                return null;
+            }
+            node = node.children[edge];
+            at += common;
+        }
+        return node;
+    }
+
+    /**
+     * Add the heroes at and under the node, in name order, until there are limit of them.
+     */
+    private static boolean collect(Node node, Map<Long, String> found, int limit) {
+        for (int i = 0; i < node.ids.length; i++) {
+            if (found.size() >= limit) {
+                return false;
+            }
+            found.putIfAbsent(node.ids[i], node.names[i]);
+        }
+        for (Node child : node.children) {
+            if (!collect(child, found, limit)) {
+                return false;
+            }
+        }
+        return found.size() < limit;
+    }
+
+    /**
+     * Walk the trie a character at a time, keeping the row of edit distances between the
+     * prefixes of the key and the name so far. Where the whole key is within one edit, every
+     * name further down matches. Where no prefix of the key is, none does.
+     */
+    private static boolean near(Node node, String key, int[] row, Map<Long, String> found, int limit) {
+        for (int e = 0; e < node.edges.length; e++) {
+            String label = node.edges[e];
+            int[] current = row;
+            boolean matched = false;
+            boolean hopeless = false;
+            for (int c = 0; c < label.length() && !matched && !hopeless; c++) {
+                current = next(current, key, label.charAt(c));
+                matched = current[key.length()] <= 1;
+                hopeless = min(current) > 1;
+            }
+            boolean more = true;
+            if (matched) {
+                more = collect(node.children[e], found, limit);
+            } else if (!hopeless) {
+                more = near(node.children[e], key, current, found, limit);
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] next(int[] row, String key, char c) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int change = row[j - 1] + (key.charAt(j - 1) == c ? 0 : 1);
+            next[j] = Math.min(change, Math.min(row[j], next[j - 1]) + 1);
+        }
+        return next;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int distance : row) {
+            min = Math.min(min, distance);
+        }
+        return min;
+    }
+
+    /**
+     * @return false if the hero was already there under the name
+     */
+    private static boolean insert(Node root, String key, long id, String name) {
+        Node node = root;
+        int at = 0;
+        while (at < key.length()) {
+            int edge = edge(node, key.charAt(at));
+            if (edge < 0) {
+                Node leaf = new Node();
+                addEdge(node, -edge - 1, key.substring(at), leaf);
+                node = leaf;
+                break;
+            }
+            String label = node.edges[edge];
+            int common = common(label, key, at);
+            if (common < label.length()) {
+                // Split the edge where the key leaves it
+                Node middle = new Node();
+                middle.edges = new String[] { label.substring(common) };
+                middle.children = new Node[] { node.children[edge] };
+                node.edges[edge] = label.substring(0, common);
+                node.children[edge] = middle;
+            }
+            node = node.children[edge];
+            at += common;
+        }
+        for (int i = 0; i < node.ids.length; i++) {
+            if (node.ids[i] == id && node.names[i].equals(name)) {
+                return false;
+            }
+        }
+        node.ids = Arrays.copyOf(node.ids, node.ids.length + 1);
+        node.ids[node.ids.length - 1] = id;
+        node.names = Arrays.copyOf(node.names, node.names.length + 1);
+        node.names[node.names.length - 1] = name;
+        return true;
+    }
+
+    /**
+     * Remove the hero's name from under the node. Nodes left with no heroes and no edges are
+     * dropped, and those left with no heroes and one edge are merged into it.
+     *
+     * @return false if the hero was not there under the name
+     */
+    private static boolean remove(Node node, String key, long id, String name) {
+        if (key.isEmpty()) {
+            for (int i = 0; i < node.ids.length; i++) {
+                if (node.ids[i] == id && node.names[i].equals(name)) {
+                    node.ids = without(node.ids, i);
+                    node.names = without(node.names, i);
+                    return true;
+                }
+            }
+            return false;
+        }
+        int edge = edge(node, key.charAt(0));
+        if (edge < 0 || !key.startsWith(node.edges[edge])) {
+            return false;
+        }
+        Node child = node.children[edge];
+        boolean removed = remove(child, key.substring(node.edges[edge].length()), id, name);
+        if (child.ids.length == 0 && child.edges.length == 0) {
+            node.edges = without(node.edges, edge);
+            node.children = without(node.children, edge);
+        } else if (child.ids.length == 0 && child.edges.length == 1) {
+            node.edges[edge] = node.edges[edge] + child.edges[0];
+            node.children[edge] = child.children[0];
+        }
+        return removed;
+    }
+
+    /**
+     * @return the index of the edge starting with the character, or -(insertion point) - 1
+     */
+    private static int edge(Node node, char first) {
+        int low = 0;
+        int high = node.edges.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char c = node.edges[mid].charAt(0);
+            if (c < first) {
+                low = mid + 1;
+            } else if (c > first) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    private static int common(String label, String key, int at) {
+        int n = Math.min(label.length(), key.length() - at);
+        int i = 0;
+        while (i < n && label.charAt(i) == key.charAt(at + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void addEdge(Node node, int at, String label, Node child) {
+        String[] edges = new String[node.edges.length + 1];
+        Node[] children = new Node[edges.length];
+        System.arraycopy(node.edges, 0, edges, 0, at);
+        System.arraycopy(node.children, 0, children, 0, at);
+        edges[at] = label;
+        children[at] = child;
+        System.arraycopy(node.edges, at, edges, at + 1, node.edges.length - at);
+        System.arraycopy(node.children, at, children, at + 1, node.children.length - at);
+        node.edges = edges;
+        node.children = children;
+    }
+
+    private static long[] without(long[] values, int at) {
+        long[] less = new long[values.length - 1];
+        System.arraycopy(values, 0, less, 0, at);
+        System.arraycopy(values, at + 1, less, at, less.length - at);
+        return less;
+    }
+
+    private static <T> T[] without(T[] values, int at) {
+        T[] less = Arrays.copyOf(values, values.length - 1);
+        System.arraycopy(values, at + 1, less, at, less.length - at);
+        return less;
+    }
+}
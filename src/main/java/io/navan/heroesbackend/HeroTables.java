@@ -0,0 +1,26 @@
+package io.navan.heroesbackend;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The databases whose hero tables hold the heroes, for what reads or follows every hero row
+ * outside HeroRepository: HeroNames, HeroSuggestions, HeroChangeFeed and HeroChanges. That is
+ * the application's own database, apart from in the sharded profile, see ShardedHeroTables.
+ */
+@Component
+public class HeroTables {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return a template for each database holding heroes
+     */
+    public List<JdbcTemplate> all() {
+        return List.of(jdbcTemplate);
+    }
+}
@@ -0,0 +1,163 @@
+package io.navan.heroesbackend;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 row trigger that keeps the hero_trigram and hero_trigram_count side tables in step with hero,
+ * see schema.sql. Living in the database means every write to hero is indexed, whether it comes
+ * through HeroRepository or plain JDBC. Bulk inserts can index their heroes themselves, a batch
+ * at a time, see {@link #indexLater}.
+ */
+public class HeroTrigramTrigger implements Trigger {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    // Set while inserting heroes the caller will index with index(), see indexLater
+    private static final ThreadLocal<Boolean> LATER = new ThreadLocal<>();
+
+    /**
+     * Make writes without the trigger indexing them, for a caller that then indexes the heroes
+     * written with {@link #index}, in the same transaction, so the index is never seen behind.
+     */
+    public static void indexLater(Runnable writes) {
+        LATER.set(Boolean.TRUE);
+        try {
+            writes.run();
+        } finally {
+            LATER.remove();
+        }
+    }
+
+    /**
+     * Index heroes just inserted: their trigrams in one JDBC batch, and one count update per
+     * trigram, however many of the heroes have it, rather than one per hero and trigram.
+     */
+    public static void index(Connection conn, List<Hero> heroes) throws SQLException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (PreparedStatement insert = conn.prepareStatement(
+                "insert into hero_trigram(gram, hero_id) values (?, ?)")) {
+            for (Hero hero : heroes) {
+                for (String gram : Trigrams.of(hero.getName())) {
+                    insert.setString(1, gram);
+                    insert.setLong(2, hero.getId());
+                    insert.addBatch();
+                    counts.merge(gram, 1, Integer::sum);
+                }
+            }
+            insert.executeBatch();
+        }
+        List<String> grams = new ArrayList<>(counts.keySet());
+        int[] updated;
+        try (PreparedStatement update = conn.prepareStatement(
+                "update hero_trigram_count set heroes = heroes + ? where gram = ?")) {
+            for (String gram : grams) {
+                update.setInt(1, counts.get(gram));
+                update.setString(2, gram);
+                update.addBatch();
+            }
+            updated = update.executeBatch();
+        }
+        for (int i = 0; i < grams.size(); i++) {
+            if (updated[i] == 0) {
+                count(conn, grams.get(i), counts.get(grams.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName,
+            boolean before, int type) {
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (LATER.get() != null) {
+            return;
+        }
+        if (oldRow != null && newRow != null && sameName(oldRow, newRow)) {
+            return;
+        }
+        if (oldRow != null) {
+            Set<String> grams = Trigrams.of((String) oldRow[NAME]);
+            try (PreparedStatement delete = conn.prepareStatement(
+                    "delete from hero_trigram where hero_id = ?")) {
+                delete.setObject(1, oldRow[ID]);
+                delete.executeUpdate();
+            }
+            for (String gram : grams) {
+                count(conn, gram, -1);
+            }
+        }
+        if (newRow != null) {
+            Set<String> grams = Trigrams.of((String) newRow[NAME]);
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "insert into hero_trigram(gram, hero_id) values (?, ?)")) {
+                for (String gram : grams) {
+                    insert.setString(1, gram);
+                    insert.setObject(2, newRow[ID]);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            for (String gram : grams) {
+                count(conn, gram, 1);
+            }
+        }
+    }
+
+    /**
+     * Add to a trigram's hero count, creating the count the first time the trigram is seen.
+     * Counts are left at zero rather than deleted, so they are only ever created once.
+     */
+    private static void count(Connection conn, String gram, int delta) throws SQLException {
+        if (updateCount(conn, gram, delta) > 0 || delta < 0) {
+            return;
+        }
+        try (PreparedStatement insert = conn.prepareStatement(
+                "insert into hero_trigram_count(gram, heroes) values (?, ?)")) {
+            insert.setString(1, gram);
+            insert.setInt(2, delta);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            // Another transaction created it first.
+            if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                throw e;
+            }
+            updateCount(conn, gram, delta);
+        }
+    }
+
+    private static int updateCount(Connection conn, String gram, int delta) throws SQLException {
+        try (PreparedStatement update = conn.prepareStatement(
+                "update hero_trigram_count set heroes = heroes + ? where gram = ?")) {
+            update.setInt(1, delta);
+            update.setString(2, gram);
+            return update.executeUpdate();
+        }
+    }
+
+    private static boolean sameName(Object[] oldRow, Object[] newRow) {
+        return oldRow[ID].equals(newRow[ID])
+                && oldRow[NAME] != null && oldRow[NAME].equals(newRow[NAME]);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+}
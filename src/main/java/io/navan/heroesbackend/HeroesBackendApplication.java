@@ -3,9 +3,13 @@ package io.navan.heroesbackend;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.data.rest.RepositoryRestMvcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 import org.springframework.context.annotation.ComponentScan;
 
-@SpringBootApplication(exclude = RepositoryRestMvcAutoConfiguration.class)
+// An R2DBC ConnectionFactory bean would switch off the JDBC DataSource, so the reactive
+// profile builds its own DatabaseClient rather than let Boot configure one.
+@SpringBootApplication(exclude = {
+        RepositoryRestMvcAutoConfiguration.class, R2dbcAutoConfiguration.class })
 @ComponentScan(basePackages = "io.navan")
 public class HeroesBackendApplication {
 
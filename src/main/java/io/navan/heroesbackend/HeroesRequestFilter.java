@@ -1,14 +1,28 @@
 package io.navan.heroesbackend;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import io.swagger.annotations.ApiParam;
 
-public class HeroesRequestFilter {
+/**
+ * Renders as JSON for logging. Log4j2 appends it straight into its reusable buffer through
+ * {@link #formatTo(StringBuilder)}, so logging a filter allocates nothing.
+ */
+public class HeroesRequestFilter implements StringBuilderFormattable {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     @ApiParam(value = "Search for names containing this", required = false) 
     private String name;
 
+    @ApiParam(value = "Page through heroes with ids after this one", required = false)
+    private Long after;
+
+    @ApiParam(value = "Maximum number of heroes in a page", required = false)
+    private Integer limit;
+
     public String getName() {
         return name;
     }
@@ -16,13 +30,97 @@ public class HeroesRequestFilter {
     public void setName(String name) {
         this.name = name;
     }
+
+    public Long getAfter() {
+        return after;
+    }
+
+    public void setAfter(Long after) {
+        this.after = after;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if a keyset page was asked for rather than the whole list
+     */
+    @JsonIgnore
+    public boolean isPaged() {
+        return after != null || limit != null;
+    }
     
-    public String toString() {
-        try {
-            return new ObjectMapper().writeValueAsString(this);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);  //Will never happen
+    @Override
+    public void formatTo(StringBuilder buffer) {
+        buffer.append("{\"name\":");
+        if (name == null) {
+            buffer.append("null");
+        } else {
+            buffer.append('"');
+            appendEscaped(buffer, name);
+            buffer.append('"');
+        }
+        buffer.append(",\"after\":");
+        if (after == null) {
+            buffer.append("null");
+        } else {
+            buffer.append(after.longValue());
+        }
+        buffer.append(",\"limit\":");
+        if (limit == null) {
+            buffer.append("null");
+        } else {
+            buffer.append(limit.intValue());
         }
+        buffer.append('}');
+    }
 
+    /**
+     * Append the text as the inside of a JSON string: quotes, backslashes and control
+     * characters escaped, so a name can neither break the JSON nor start a new log line.
+     */
+    static void appendEscaped(StringBuilder buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                buffer.append('\\').append(c);
+                break;
+            case '\n':
+                buffer.append("\\n");
+                break;
+            case '\r':
+                buffer.append("\\r");
+                break;
+            case '\t':
+                buffer.append("\\t");
+                break;
+            case '\b':
+                buffer.append("\\b");
+                break;
+            case '\f':
+                buffer.append("\\f");
+                break;
+            default:
+                if (c < 0x20) {
+                    buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                } else {
+                    buffer.append(c);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder(64);
+        formatTo(buffer);
+        return buffer.toString();
     }
 }
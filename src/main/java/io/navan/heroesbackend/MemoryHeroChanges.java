@@ -0,0 +1,24 @@
+package io.navan.heroesbackend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * HeroChanges for the memory profile, counting the changes MemoryHeroRepository makes in memory
+ * rather than reading the hero_change_counter, which trails them until they are written behind.
+ */
+@Component
+@Primary
+@Profile("memory")
+public class MemoryHeroChanges extends HeroChanges {
+
+    @Autowired
+    MemoryHeroRepository memoryHeroRepository;
+
+    @Override
+    public long changes() {
+        return memoryHeroRepository.changes();
+    }
+}
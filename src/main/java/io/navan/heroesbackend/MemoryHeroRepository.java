@@ -0,0 +1,740 @@
+package io.navan.heroesbackend;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.navan.system.LongKeyedMap;
+
+/**
+ * HeroRepository for the memory profile, holding every hero in memory and the hero table only
+ * as the durable copy. The caching of HeroRepository applies as it does to the JPA repository.
+ * Heroes are kept in a LongKeyedMap by id, each as its version and its name in UTF-8, and
+ * loaded from the hero table at startup. Reads take no lock. Writes lock the stripe of the
+ * hero's id, and names are kept unique, as ak_hero would, through a second LongKeyedMap from the
+ * hash of a name's UTF-8 to the ids of the heroes whose names have that hash, checked against
+ * the names the heroes have. A hero whose write to a name of that hash is still being made
+ * counts as having the name, so a name is never taken twice, though two names of one hash being
+ * taken at once may turn one of them away.
+ * Every write is queued for the hero table, and written behind by one thread in batches of up
+ * to heroes.memory.batch-size, once heroes.memory.flush-interval has passed or a batch is full.
+ * Writes are applied to the table in the order they were made in memory: a write to a hero is
+ * queued under its stripe lock, and a name is only let go once the write letting it go is
+ * queued, so each batch keeps ak_hero. A batch that fails is tried again, and the queue is
+ * written out before shutdown. HeroRowTrigger's listeners are told of each write as it is made
+ * in memory, and the write-behind thread writes quietly, so they are not told again.
+ * This repository listens to the trigger too, so writes made to the hero table around it, such
+ * as with plain JDBC, are applied in memory as they are made, and undone if rolled back. The
+ * table has the last word on such a write: its name is indexed even if a write still queued
+ * has the name in memory, and the queued write then fails on ak_hero when written behind.
+ * Anything reading the hero table directly, such as the hero_change_counter, trails by up to
+ * the flush interval, and a write made around this repository cannot see what it has queued.
+ * The list ETags come from this repository's own count of changes instead, see
+ * MemoryHeroChanges, and streams and exports flush first, see MemoryHeroStreamer.
+ * Writes are not transactional: a rolled back transaction does not undo them.
+ */
+@Repository
+@Profile("memory")
+public class MemoryHeroRepository implements HeroRepository, HeroRowTrigger.Listener {
+
+    public static final String PENDING = "heroes.memory.pending";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryHeroRepository.class);
+
+    // As Hero's hero_seq generator.
+    private static final int ID_BLOCK = 50;
+
+    private static final Comparator<Hero> BY_ID = Comparator.comparing(Hero::getId);
+
+    private static final long[] NO_IDS = {};
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${heroes.memory.stripes:64}")
+    int stripes;
+
+    @Value("${heroes.memory.batch-size:1000}")
+    int batchSize;
+
+    @Value("${heroes.memory.flush-interval:50ms}")
+    Duration flushInterval;
+
+    private LongKeyedMap<Row> heroes;
+    private LongKeyedMap<long[]> names;
+    private String database;
+    private final AtomicLong changes = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<Write> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final List<Write> batch = new ArrayList<>();
+    private final Object writing = new Object();
+    private volatile boolean running = true;
+    private Thread writer;
+
+    private long nextId;
+    private long idLimit;
+
+    /**
+     * A hero as kept in memory, less its id. The name is null only if the hero table's is.
+     */
+    private static final class Row {
+        final long version;
+        final byte[] name;
+
+        Row(long version, String name) {
+            this.version = version;
+            this.name = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        String name() {
+            return name == null ? null : new String(name, StandardCharsets.UTF_8);
+        }
+
+        Hero toHero(long id) {
+            Hero hero = new Hero(name());
+            hero.setId(id);
+            hero.setVersion(version);
+            return hero;
+        }
+    }
+
+    private enum Kind {
+        INSERT("insert into hero(id, name, version) values (?, ?, ?)"),
+        UPDATE("update hero set name = ?, version = ? where id = ?"),
+        DELETE("delete from hero where id = ?"),
+        DELETE_ALL("delete from hero");
+
+        final String sql;
+
+        Kind(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * A write queued for the hero table.
+     */
+    private static final class Write {
+        final Kind kind;
+        final long id;
+        final String name;
+        final long version;
+
+        Write(Kind kind, long id, String name, long version) {
+            this.kind = kind;
+            this.id = id;
+            this.name = name;
+            this.version = version;
+        }
+
+        Object[] parameters() {
+            switch (kind) {
+            case INSERT:
+                return new Object[] { id, name, version };
+            case UPDATE:
+                return new Object[] { name, version, id };
+            case DELETE:
+                return new Object[] { id };
+            default:
+                return new Object[0];
+            }
+        }
+    }
+
+    @PostConstruct
+    void load() {
+        heroes = new LongKeyedMap<>(stripes);
+        names = new LongKeyedMap<>(stripes);
+        database = HeroRowTrigger.database(jdbcTemplate);
+        HeroRowTrigger.listen(jdbcTemplate, this);
+        jdbcTemplate.query("select id, name, version from hero", rs -> {
+            changed(null, hero(rs.getLong(1), rs.getString(2), rs.getLong(3)));
+        });
+        Gauge.builder(PENDING, queued, AtomicInteger::get)
+                .description("Hero writes made in memory and not yet written to the hero table")
+                .register(meterRegistry);
+        writer = new Thread(this::writeBehind, "hero-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+        LOG.info("Loaded {} heroes into memory", heroes.size());
+    }
+
+    @PreDestroy
+    void close() throws InterruptedException {
+        HeroRowTrigger.stopListening(this);
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+        flush();
+    }
+
+    /**
+     * @return the number of changes made to heroes since startup
+     */
+    public long changes() {
+        return changes.get();
+    }
+
+    /**
+     * Write everything queued so far to the hero table.
+     */
+    public void flush() {
+        synchronized (writing) {
+            while (!batch.isEmpty() || !queue.isEmpty()) {
+                fillBatch();
+                writeBatch();
+            }
+        }
+    }
+
+    @Override
+    public Optional<Hero> findById(Long id) {
+        Row row = heroes.get(id);
+        return row == null ? Optional.empty() : Optional.of(row.toHero(id));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return heroes.get(id) != null;
+    }
+
+    @Override
+    public Iterable<Hero> findAll() {
+        return sorted(heroesWhere(null));
+    }
+
+    @Override
+    public Iterable<Hero> findAllById(Iterable<Long> ids) {
+        List<Hero> found = new ArrayList<>();
+        ids.forEach(id -> findById(id).ifPresent(found::add));
+        return sorted(found);
+    }
+
+    @Override
+    public long count() {
+        return heroes.size();
+    }
+
+    @Override
+    public List<Long> findExistingIds(Collection<Long> ids) {
+        List<Long> existing = new ArrayList<>();
+        for (Long id : ids) {
+            if (existsById(id)) {
+                existing.add(id);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public List<Hero> findByNameIn(Collection<String> names) {
+        List<Hero> found = new ArrayList<>();
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            long[] ids = this.names.get(hash(bytes));
+            for (long id : ids == null ? NO_IDS : ids) {
+                Row row = heroes.get(id);
+                if (row != null && Arrays.equals(row.name, bytes)) {
+                    found.add(row.toHero(id));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Scans every hero, without the trigram index, which only the hero table has.
+     */
+    @Override
+    public Iterable<Hero> findByName(String name) {
+        return scanByName(name);
+    }
+
+    @Override
+    public Iterable<Hero> scanByName(String name) {
+        return sorted(heroesWhere(like(name)));
+    }
+
+    @Override
+    public Iterable<Hero> narrowByTrigrams(String name) {
+        return scanByName(name);
+    }
+
+    @Override
+    public List<Object[]> countTrigrams(Collection<String> grams) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        heroes.forEach((id, row) -> {
+            if (row.name != null) {
+                Trigrams.of(row.name()).stream()
+                        .filter(grams::contains)
+                        .forEach(gram -> counts.merge(gram, 1L, Long::sum));
+            }
+        });
+        List<Object[]> result = new ArrayList<>(counts.size());
+        counts.forEach((gram, heroes) -> result.add(new Object[] { gram, heroes }));
+        return result;
+    }
+
+    @Override
+    public Iterable<Hero> findByTrigram(String name, String gram) {
+        Predicate<String> like = like(name);
+        return sorted(heroesWhere(heroName -> Trigrams.of(heroName).contains(gram) && like.test(heroName)));
+    }
+
+    /**
+     * The heroes following {@code after}, kept to the page's worth with the highest ids let go
+     * as the scan goes, as there is no index by id order to walk.
+     */
+    @Override
+    public List<Hero> findPageAfter(Long after, Pageable pageable) {
+        int limit = (int) (pageable.getOffset() + pageable.getPageSize());
+        PriorityQueue<Hero> page = new PriorityQueue<>(limit + 1, BY_ID.reversed());
+        heroes.forEach((id, row) -> {
+            if (id > after && (page.size() < limit || id < page.peek().getId())) {
+                page.add(row.toHero(id));
+                if (page.size() > limit) {
+                    page.poll();
+                }
+            }
+        });
+        List<Hero> sorted = sorted(new ArrayList<>(page));
+        return sorted.subList((int) Math.min(pageable.getOffset(), sorted.size()), sorted.size());
+    }
+
+    /**
+     * Validated here, as Hibernate would have on flush. A hero with an id is renamed, at its
+     * version if it has one; one without, or whose id no hero has, is created.
+     */
+    @Override
+    public <S extends Hero> S save(S hero) {
+        validate(hero);
+        if (hero.getId() != null && existsById(hero.getId())) {
+            List<Long> versions = hero.getVersion() == null ? null : List.of(hero.getVersion());
+            Row renamed = rename(hero.getId(), hero.getName(), versions);
+            if (renamed == null) {
+                throw new OptimisticLockingFailureException("Hero has changed");
+            }
+            hero.setVersion(renamed.version);
+            return hero;
+        }
+        if (hero.getId() == null) {
+            hero.setId(nextId());
+        }
+        hero.setVersion(0L);
+        insert(hero);
+        return hero;
+    }
+
+    @Override
+    public <S extends Hero> Iterable<S> saveAll(Iterable<S> heroes) {
+        List<S> saved = new ArrayList<>();
+        for (S hero : heroes) {
+            saved.add(save(hero));
+        }
+        return saved;
+    }
+
+    /**
+     * Inserted a hero at a time, as every write here is made in memory and written behind in
+     * batches anyway. Not transactional: heroes before a taken name stay inserted.
+     */
+    @Override
+    public void insertAll(List<Hero> heroes) {
+        for (Hero hero : heroes) {
+            hero.setId(nextId());
+            hero.setVersion(0L);
+            insert(hero);
+        }
+    }
+
+    @Override
+    public int updateName(Long id, String name) {
+        return rename(id, name, null) == null ? 0 : 1;
+    }
+
+    @Override
+    public int updateNameAtVersion(Long id, String name, Collection<Long> versions) {
+        return rename(id, name, versions) == null ? 0 : 1;
+    }
+
+    @Override
+    public int deleteOneById(Long id) {
+        return delete(id) ? 1 : 0;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        if (!delete(id)) {
+            throw new EmptyResultDataAccessException("No hero with id " + id, 1);
+        }
+    }
+
+    @Override
+    public void delete(Hero hero) {
+        delete(hero.getId());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        ids.forEach(this::delete);
+    }
+
+    @Override
+    public int deleteAllByIdIn(Collection<Long> ids) {
+        int deleted = 0;
+        for (Long id : ids) {
+            deleted += delete(id) ? 1 : 0;
+        }
+        return deleted;
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Hero> heroes) {
+        heroes.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        heroes.clear(() -> {
+            heroes.forEach((id, row) -> HeroRowTrigger.changed(database, this, row.toHero(id), null));
+            names.clear(() -> {
+            });
+            changes.incrementAndGet();
+            enqueue(new Write(Kind.DELETE_ALL, 0, null, 0));
+        });
+    }
+
+    private void validate(Hero hero) {
+        Set<ConstraintViolation<Hero>> violations = validator.validate(hero);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+    }
+
+    private void insert(Hero hero) {
+        long id = hero.getId();
+        heroes.compute(id, current -> {
+            if (current != null) {
+                throw new DuplicateKeyException("Hero id already exists");
+            }
+            Row row = new Row(0, hero.getName());
+            take(row.name, id);
+            HeroRowTrigger.changed(database, this, null, row.toHero(id));
+            changes.incrementAndGet();
+            enqueue(new Write(Kind.INSERT, id, hero.getName(), row.version));
+            return row;
+        });
+    }
+
+    /**
+     * @param versions The versions the hero may be at, null for any
+     * @return the renamed hero, null if there is no hero with the id at those versions
+     */
+    private Row rename(long id, String name, Collection<Long> versions) {
+        Row[] before = new Row[1];
+        Row renamed = heroes.compute(id, current -> {
+            if (current == null || (versions != null && !versions.contains(current.version))) {
+                return current;
+            }
+            Row row = new Row(current.version + 1, name);
+            take(row.name, id);
+            before[0] = current;
+            HeroRowTrigger.changed(database, this, current.toHero(id), row.toHero(id));
+            changes.incrementAndGet();
+            enqueue(new Write(Kind.UPDATE, id, name, row.version));
+            if (current.name != null && hash(current.name) != hash(row.name)) {
+                release(current.name, id);
+            }
+            return row;
+        });
+        return before[0] == null ? null : renamed;
+    }
+
+    private boolean delete(long id) {
+        Row[] before = new Row[1];
+        heroes.compute(id, current -> {
+            if (current != null) {
+                before[0] = current;
+                HeroRowTrigger.changed(database, this, current.toHero(id), null);
+                changes.incrementAndGet();
+                enqueue(new Write(Kind.DELETE, id, null, 0));
+                release(current.name, id);
+            }
+            return null;
+        });
+        return before[0] != null;
+    }
+
+    /**
+     * A write made to the hero table around this repository, or undone: applied in memory as
+     * the table has it, holding the hero's stripe lock. Not queued, as the table has it already.
+     */
+    @Override
+    public void changed(Hero before, Hero after) {
+        long id = after == null ? before.getId() : after.getId();
+        heroes.compute(id, current -> {
+            Row row = after == null ? null
+                    : new Row(after.getVersion() == null ? 0 : after.getVersion(), after.getName());
+            if (current != null && row != null && current.version == row.version
+                    && Arrays.equals(current.name, row.name)) {
+                return current;
+            }
+            if (current != null && current.name != null) {
+                release(current.name, id);
+            }
+            if (row != null && row.name != null) {
+                names.compute(hash(row.name), ids -> with(ids, id));
+            }
+            if (current != null || row != null) {
+                changes.incrementAndGet();
+            }
+            return row;
+        });
+    }
+
+    /**
+     * Take the name for the hero, unless another hero has it, holding the hero's stripe lock
+     * before its new name is in place.
+     */
+    private void take(byte[] name, long id) {
+        names.compute(hash(name), ids -> {
+            for (long other : ids == null ? NO_IDS : ids) {
+                if (other != id && mayHave(other, name)) {
+                    throw new DuplicateKeyException("Hero name already exists");
+                }
+            }
+            return with(ids, id);
+        });
+    }
+
+    /**
+     * @return false if the hero, listed under the name's hash, has another name of that hash;
+     *         true if it has the name, or its write to a name of that hash is still being made
+     */
+    private boolean mayHave(long id, byte[] name) {
+        Row row = heroes.get(id);
+        return row == null || row.name == null || hash(row.name) != hash(name) || Arrays.equals(row.name, name);
+    }
+
+    private void release(byte[] name, long id) {
+        names.compute(hash(name), ids -> without(ids, id));
+    }
+
+    private static long[] with(long[] ids, long id) {
+        if (ids == null) {
+            return new long[] { id };
+        }
+        for (long other : ids) {
+            if (other == id) {
+                return ids;
+            }
+        }
+        long[] more = Arrays.copyOf(ids, ids.length + 1);
+        more[ids.length] = id;
+        return more;
+    }
+
+    /**
+     * @return the ids less the one, null if none are left
+     */
+    private static long[] without(long[] ids, long id) {
+        if (ids == null) {
+            return null;
+        }
+        long[] less = new long[ids.length];
+        int left = 0;
+        for (long other : ids) {
+            if (other != id) {
+                less[left++] = other;
+            }
+        }
+        return left == 0 ? null : Arrays.copyOf(less, left);
+    }
+
+    /**
+     * 64 bit FNV-1a of the name's UTF-8.
+     */
+    private static long hash(byte[] name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Hero hero(long id, String name, long version) {
+        Hero hero = new Hero(name);
+        hero.setId(id);
+        hero.setVersion(version);
+        return hero;
+    }
+
+    private void enqueue(Write write) {
+        queue.add(write);
+        if (queued.incrementAndGet() == batchSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * The write-behind thread: waits for a batch to fill or the flush interval to pass, then
+     * writes what is queued.
+     */
+    private void writeBehind() {
+        while (running) {
+            if (queued.get() < batchSize) {
+                LockSupport.parkNanos(flushInterval.toNanos());
+            }
+            try {
+                synchronized (writing) {
+                    fillBatch();
+                    writeBatch();
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Writing {} heroes to the hero table failed, will try again", batch.size(), e);
+                LockSupport.parkNanos(flushInterval.toNanos());
+            }
+        }
+    }
+
+    private void fillBatch() {
+        Write write;
+        while (batch.size() < batchSize && (write = queue.poll()) != null) {
+            batch.add(write);
+        }
+    }
+
+    /**
+     * Write the batch in one transaction, each run of writes of a kind as one JDBC batch. The
+     * batch is only cleared once it has been written.
+     */
+    private void writeBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        HeroRowTrigger.quietly(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            int from = 0;
+            while (from < batch.size()) {
+                Kind kind = batch.get(from).kind;
+                int to = from;
+                List<Object[]> parameters = new ArrayList<>();
+                while (to < batch.size() && batch.get(to).kind == kind) {
+                    parameters.add(batch.get(to).parameters());
+                    to++;
+                }
+                if (kind == Kind.DELETE_ALL) {
+                    jdbcTemplate.update(kind.sql);
+                } else {
+                    jdbcTemplate.batchUpdate(kind.sql, parameters);
+                }
+                from = to;
+            }
+        }));
+        queued.addAndGet(-batch.size());
+        batch.clear();
+    }
+
+    /**
+     * The next id of the current block of hero_seq, taking a new block when it runs out.
+     */
+    private synchronized long nextId() {
+        if (nextId == idLimit) {
+            nextId = jdbcTemplate.queryForObject("select next value for hero_seq", Long.class);
+            idLimit = nextId + ID_BLOCK;
+        }
+        return nextId++;
+    }
+
+    private List<Hero> heroesWhere(Predicate<String> name) {
+        List<Hero> found = new ArrayList<>();
+        heroes.forEach((id, row) -> {
+            if (name == null) {
+                found.add(row.toHero(id));
+            } else {
+                String heroName = row.name();
+                if (heroName != null && name.test(heroName)) {
+                    found.add(row.toHero(id));
+                }
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Names containing the text, in any case, as the JPA repository's like matches them: _ is
+     * any character, % any run of them, and a backslash takes the character after it as it is.
+     */
+    private static Predicate<String> like(String contains) {
+        StringBuilder regex = new StringBuilder();
+        String text = contains.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                regex.append(Pattern.quote(String.valueOf(text.charAt(++i))));
+            } else if (c == '_') {
+                regex.append('.');
+            } else if (c == '%') {
+                regex.append(".*");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        return heroName -> pattern.matcher(heroName.toLowerCase(Locale.ROOT)).find();
+    }
+
+    private static List<Hero> sorted(List<Hero> heroes) {
+        heroes.sort(BY_ID);
+        return heroes;
+    }
+}
@@ -0,0 +1,26 @@
+package io.navan.heroesbackend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * HeroStreamer for the memory profile, writing what MemoryHeroRepository has queued to the hero
+ * table before streaming it, so a stream has every write made before it began.
+ */
+@Component
+@Primary
+@Profile("memory")
+public class MemoryHeroStreamer extends HeroStreamer {
+
+    @Autowired
+    MemoryHeroRepository memoryHeroRepository;
+
+    @Override
+    void query(RowCallbackHandler handler) {
+        memoryHeroRepository.flush();
+        super.query(handler);
+    }
+}
@@ -0,0 +1,283 @@
+package io.navan.heroesbackend;
+
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.rest.webmvc.ResourceNotFoundException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking /heroes for the reactive profile. Same paths, status codes, headers and
+ * ValidationError bodies as {@link HeroController}, which serves them in the default servlet
+ * profile. The batch endpoints and stream=true are servlet only; here GET /heroes streams
+ * anyway, as a JSON array or, for Accept application/x-ndjson, one hero per line.
+ * Of the binary encodings only Smile is served here, as WebFlux has no CBOR encoder for streams.
+ */
+@RestController
+@RequestMapping(value = "heroes")
+@Api(tags= {"heroes"})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveHeroController {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    ReactiveHeroRepository heroRepository;
+
+    @Autowired
+    Validator validator;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveHeroController.class);
+
+    /**
+     * Create a hero. Returned hero will have the auto-generated id of the new hero.
+     *
+     * @param hero The hero to create
+     * @return the created hero
+     */
+    @PostMapping(consumes = { "application/json", HeroController.SMILE },
+            produces = { "application/json", HeroController.SMILE })
+    @ResponseStatus(HttpStatus.CREATED)
+    @ApiOperation(value = "Create a hero resource.",
+                    notes = "Create hero returning the new Hero")
+    public Mono<Hero> createHero(@RequestBody Hero hero,
+            ServerHttpRequest request, ServerHttpResponse response) {
+        LOG.debug("createHero: {}", hero.getName());
+        return validated(hero)
+                .flatMap(valid -> heroRepository.insert(valid.getName()))
+                .doOnNext(createdHero -> {
+                    response.getHeaders().setLocation(UriComponentsBuilder
+                            .fromUri(request.getURI())
+                            .replaceQuery(null)
+                            .path("/{id}")
+                            .buildAndExpand(createdHero.getId())
+                            .toUri());
+                    LOG.debug("Created hero {} with id {}",
+                            createdHero.getName(), createdHero.getId());
+                });
+    }
+
+    /**
+     * Retrieve all heroes, or one keyset page of them when after or limit is given.
+     * Heroes are written as they are read from the database, as fast as the client takes them.
+     * Answers 304 Not Modified, without reading any heroes, if the hero table has not changed
+     * since the ETag in If-None-Match.
+     *
+     * @return heroes, empty if not modified
+     */
+    @GetMapping(produces = { "application/json", NDJSON, HeroController.SMILE })
+    @ApiOperation(value = "Get all heroes.",
+            notes = "Get a list of all heroes. Use after and limit to page through them by id."
+                    + " Accept application/x-ndjson for one hero per line.")
+    @ApiResponses(value = {
+            @ApiResponse(code=304, message="Not Modified")
+    })
+    public Mono<ResponseEntity<Flux<Hero>>> allHeroes(
+            @ApiParam(value = "Search by this stuff", required = false)
+            HeroesRequestFilter heroesRequestFilter,
+            ServerWebExchange exchange) {
+        LOG.debug("allHeroes filter:{}", heroesRequestFilter);
+        return heroRepository.changes()
+                .map(HeroChanges::listEtag)
+                .filter(etag -> !exchange.checkNotModified(etag))
+                .flatMap(etag -> {
+                    ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag(etag);
+                    if (heroesRequestFilter.getName() != null) {
+                        return Mono.just(ok.body(
+                                heroRepository.findByName(heroesRequestFilter.getName())));
+                    }
+                    else if (heroesRequestFilter.isPaged()) {
+                        return heroPage(heroesRequestFilter, exchange.getRequest(), ok);
+                    }
+                    else {
+                        return Mono.just(ok.body(heroRepository.findAll()));
+                    }
+                });
+    }
+
+    /**
+     * Get a hero by id. The hero's version goes out as a strong ETag, and a matching
+     * If-None-Match is answered with 304 Not Modified.
+     *
+     * @param id
+     *            the hero's id
+     * @return the hero
+     */
+    @GetMapping(value = "/{id:\\d+}", produces = { "application/json", HeroController.SMILE })
+    @ApiOperation(value = "Get a single hero.", notes = "Get hero By ID.")
+    @ApiResponses(value = {
+            @ApiResponse(code=304, message="Not Modified"),
+            @ApiResponse(code=404, message="Hero not found.")
+    })
+    public Mono<ResponseEntity<Hero>> singleHero(
+            @ApiParam(value = "The ID of the hero.", required = true)
+            @PathVariable Long id) {
+        LOG.debug("singleHero for id {}", id);
+        return heroRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Hero not found")))
+                .map(hero -> ResponseEntity.ok().eTag(HeroChanges.etag(hero)).body(hero));
+    }
+
+    /**
+     * Update a hero. Hero must exist for id.
+     * With If-Match, the update only goes ahead if the hero is still at the version the ETag
+     * was given out for. Without, the last write wins.
+     *
+     * @param id
+     *            The id of the hero to update
+     * @param hero
+     *            The hero value
+     * @param ifMatch
+     *            ETags the hero must match, optional
+     */
+    @PutMapping(value = "/{id:\\d+}",
+            consumes = { "application/json", HeroController.SMILE },
+            produces = { "application/json", HeroController.SMILE })
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @ApiOperation(value = "Update an existing hero resource.",
+            notes = "Update Hero for id.")
+    @ApiResponses(value = {
+        @ApiResponse(code=400, message="Validation Errors"),
+        @ApiResponse(code=404, message="Hero not found"),
+        @ApiResponse(code=412, message="Hero has changed")
+    })
+    public Mono<Void> updateHero(
+            @ApiParam(value = "The ID of the hero resource", required = true)
+            @PathVariable Long id,
+            @RequestBody Hero hero,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        LOG.debug("updateHero: {} to {}", id, hero.getName());
+        if (ifMatch == null) {
+            // Last write wins, as in the servlet profile
+            return validated(hero)
+                    .flatMap(valid -> heroRepository.update(id, valid.getName(), null))
+                    .flatMap(updated -> updated == 0
+                            ? Mono.error(new ResourceNotFoundException("Hero not found"))
+                            : Mono.empty())
+                    .then();
+        }
+        return validated(hero)
+                .flatMap(valid -> heroRepository.findById(id))
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Hero not found")))
+                .flatMap(currentHero -> {
+                    if (!HeroController.matches(ifMatch, HeroChanges.etag(currentHero))) {
+                        return Mono.error(new OptimisticLockingFailureException("Hero has changed"));
+                    }
+                    // Only update the version matched, so a change made in between fails rather than being lost.
+                    return heroRepository.update(id, hero.getName(), currentHero.getVersion());
+                })
+                .flatMap(updated -> updated == 0 ? changedOrNotFound(id) : Mono.empty())
+                .then();
+    }
+
+    /**
+     * A conditional update changed nothing: the hero has changed since it was read, or is gone.
+     */
+    private Mono<Void> changedOrNotFound(Long id) {
+        return heroRepository.findById(id)
+                .flatMap(hero -> Mono.<Void>error(new OptimisticLockingFailureException("Hero has changed")))
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Hero not found")));
+    }
+
+    /**
+     * Delete hero
+     *
+     * @param id The id
+     */
+    @ApiOperation(value = "Delete a hero resource.",
+            notes = "Delete hero with id.")
+    @ApiResponses(value = {
+        @ApiResponse(code=404, message="Not Found")
+    })
+    @DeleteMapping(value = "/{id:\\d+}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> deleteHero(
+            @ApiParam(value = "The ID of the hero resource", required = true)
+            @PathVariable Long id) {
+        LOG.debug("delete >{}<", id);
+        return heroRepository.deleteById(id)
+                .flatMap(deleted -> deleted == 0
+                        ? Mono.error(new ResourceNotFoundException("Hero not found"))
+                        : Mono.empty())
+                .then();
+    }
+
+    /**
+     * Find hero with name containing string (not case sensitive).
+     *
+     * @deprecated Use allHeroes
+     * @param name The string to search for.
+     * @return heroes with matching names.
+     */
+    @GetMapping(value = "/search/name", produces = { "application/json", HeroController.SMILE })
+    @ResponseStatus(HttpStatus.OK)
+    @ApiOperation(value = "Find hero resources by name.",
+        notes= "Find hero resources with names that contain specified text.")
+    public Flux<Hero> findByName(
+            @ApiParam(value = "Search for heroes with name containing", required=true)
+            @RequestParam("contains") String name) {
+        LOG.debug("findByName >{}<", name);
+        return heroRepository.findByName(name);
+    }
+
+    /**
+     * The bean validation JPA does on save in the servlet profile.
+     */
+    private Mono<Hero> validated(Hero hero) {
+        Set<ConstraintViolation<Hero>> violations = validator.validate(hero);
+        return violations.isEmpty() ? Mono.just(hero)
+                : Mono.error(new ConstraintViolationException(violations));
+    }
+
+    /**
+     * The Link header has to go out before the heroes, so a page is read in full first.
+     */
+    private Mono<ResponseEntity<Flux<Hero>>> heroPage(HeroesRequestFilter filter,
+            ServerHttpRequest request, ResponseEntity.BodyBuilder ok) {
+        long after = filter.getAfter() == null ? 0L : filter.getAfter();
+        int limit = filter.getLimit() == null ? HeroController.DEFAULT_PAGE_SIZE
+                : Math.max(1, Math.min(filter.getLimit(), HeroController.MAX_PAGE_SIZE));
+        return heroRepository.findPageAfter(after, limit).collectList().map(page -> {
+            if (page.size() == limit) {
+                String next = UriComponentsBuilder.fromUri(request.getURI())
+                        .replaceQueryParam("after", page.get(page.size() - 1).getId())
+                        .replaceQueryParam("limit", limit)
+                        .toUriString();
+                ok.header("Link", "<" + next + ">; rel=\"next\"");
+            }
+            return ok.body(Flux.fromIterable(page));
+        });
+    }
+}
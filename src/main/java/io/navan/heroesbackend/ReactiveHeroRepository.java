@@ -0,0 +1,144 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link HeroRepository} for the reactive profile, over R2DBC.
+ * Same queries, including the trigram narrowing of name searches, written as SQL against the
+ * tables in schema.sql. Rows are emitted as they are read, so a subscriber that asks for heroes
+ * slowly holds back the query rather than having them buffered for it.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveHeroRepository {
+
+    private static final String COLUMNS = "select h.id, h.name, h.version from hero h";
+
+    @Autowired
+    DatabaseClient databaseClient;
+
+    public Flux<Hero> findAll() {
+        return databaseClient.sql(COLUMNS + " order by h.id")
+                .map(ReactiveHeroRepository::hero)
+                .all();
+    }
+
+    public Mono<Hero> findById(Long id) {
+        return databaseClient.sql(COLUMNS + " where h.id = :id")
+                .bind("id", id)
+                .map(ReactiveHeroRepository::hero)
+                .one();
+    }
+
+    /**
+     * Keyset page: the heroes following id {@code after} in id order.
+     */
+    public Flux<Hero> findPageAfter(long after, int limit) {
+        return databaseClient.sql(COLUMNS + " where h.id > :after order by h.id limit :limit")
+                .bind("after", after)
+                .bind("limit", limit)
+                .map(ReactiveHeroRepository::hero)
+                .all();
+    }
+
+    /**
+     * Find heroes with names containing the string, not case sensitive.
+     * See {@link HeroRepository#findByName(String)}.
+     */
+    public Flux<Hero> findByName(String name) {
+        if (!Trigrams.canNarrow(name)) {
+            return databaseClient.sql(COLUMNS
+                    + " where lower(h.name) like concat('%', lower(:contains), '%')")
+                    .bind("contains", name)
+                    .map(ReactiveHeroRepository::hero)
+                    .all();
+        }
+        Set<String> grams = Trigrams.of(name);
+        return databaseClient.sql("select gram, heroes from hero_trigram_count"
+                + " where gram in (:grams) and heroes > 0 order by heroes")
+                .bind("grams", new ArrayList<>(grams))
+                .map(row -> row.get("gram", String.class))
+                .all()
+                .collectList()
+                .flatMapMany(counted -> counted.size() < grams.size() ? Flux.empty()
+                        : databaseClient.sql(COLUMNS
+                                + " join hero_trigram t on t.hero_id = h.id and t.gram = :gram"
+                                + " where lower(h.name) like concat('%', lower(:contains), '%')")
+                                .bind("gram", counted.get(0))
+                                .bind("contains", name)
+                                .map(ReactiveHeroRepository::hero)
+                                .all());
+    }
+
+    /**
+     * Insert a hero, its id coming from the hero_seq default on the id column.
+     *
+     * @return the new hero, with its id and version
+     */
+    public Mono<Hero> insert(String name) {
+        return databaseClient.sql("insert into hero(name) values (:name)")
+                .bind("name", name)
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .map(id -> {
+                    Hero hero = new Hero(name);
+                    hero.setId(id);
+                    hero.setVersion(0L);
+                    return hero;
+                });
+    }
+
+    /**
+     * Rename a hero, bumping its version. With a version, only if the hero is still at it.
+     *
+     * @return the number of heroes updated, 0 or 1
+     */
+    public Mono<Integer> update(Long id, String name, Long version) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient
+                .sql("update hero set name = :name, version = version + 1 where id = :id"
+                        + (version == null ? "" : " and version = :version"))
+                .bind("name", name)
+                .bind("id", id);
+        if (version != null) {
+            spec = spec.bind("version", version);
+        }
+        return spec.fetch().rowsUpdated();
+    }
+
+    /**
+     * @return the number of heroes deleted, 0 or 1
+     */
+    public Mono<Integer> deleteById(Long id) {
+        return databaseClient.sql("delete from hero where id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /**
+     * @return the number of changes made to hero rows, see {@link HeroChanges}
+     */
+    public Mono<Long> changes() {
+        return databaseClient.sql("select cast(sum(changes) as bigint) changes from hero_change_counter")
+                .map(row -> row.get("changes", Long.class))
+                .one();
+    }
+
+    private static Hero hero(Row row) {
+        Hero hero = new Hero(row.get("name", String.class));
+        hero.setId(row.get("id", Long.class));
+        hero.setVersion(row.get("version", Long.class));
+        return hero;
+    }
+}
@@ -0,0 +1,468 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.navan.system.Shards;
+
+/**
+ * HeroRepository for the sharded profile, where each hero lives in the shard its id hashes to,
+ * see Shards. The caching of HeroRepository applies as it does to the JPA repository.
+ * The application's own database keeps only hero_directory, each hero's name and id, without
+ * triggers. Its primary key keeps names unique across the shards. The heroes, and the trigram
+ * index, change counter and row triggers that go with them, are the shards' alone, and are what
+ * HeroNames, HeroSuggestions, HeroChangeFeed, HeroChanges and ShardedHeroStreamer read, see
+ * ShardedHeroTables. The heroes data.sql puts in the application's own hero table are moved to
+ * the shards at startup. Ids come from hero_seq in blocks, as Hibernate takes them.
+ * A write goes to the directory first, so a taken name fails before any shard is touched, then
+ * to the shard, where it commits at once. Each shard write is recorded with how to undo it, and
+ * if the directory's transaction does not commit, because a shard write failed, a later write in
+ * the same transaction did, or the commit itself, the shard writes are undone, latest first.
+ * Reads that cannot go to one shard by id go to all of them in parallel, and the rows are put
+ * back in id order.
+ */
+@Repository
+@Profile("sharded")
+@Transactional(readOnly = true)
+public class ShardedHeroRepository implements HeroRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedHeroRepository.class);
+
+    // As Hero's hero_seq generator.
+    private static final int ID_BLOCK = 50;
+
+    private static final String SELECT = "select id, name, version from hero";
+
+    private static final String INSERT_DIRECTORY = "insert into hero_directory(id, name) values (:id, :name)";
+
+    private static final RowMapper<Hero> HERO = (rs, row) -> {
+        Hero hero = new Hero(rs.getString("name"));
+        hero.setId(rs.getLong("id"));
+        hero.setVersion(rs.getLong("version"));
+        return hero;
+    };
+
+    private static final Comparator<Hero> BY_ID = Comparator.comparing(Hero::getId);
+
+    @Autowired
+    Shards shards;
+
+    @Autowired
+    NamedParameterJdbcTemplate directory;
+
+    @Autowired
+    Validator validator;
+
+    private long nextId;
+    private long idLimit;
+
+    /**
+     * Move the heroes data.sql put in the application's own hero table to the shards, when they
+     * have none yet, and fill an empty directory from shards that already have heroes.
+     */
+    @PostConstruct
+    void load() {
+        List<Hero> seeded = directory.query(SELECT, HERO);
+        if (count() == 0) {
+            directory.batchUpdate(INSERT_DIRECTORY, parameters(seeded));
+            insertIntoShards(seeded);
+            LOG.info("Loaded {} heroes into {} shards", seeded.size(), shards.count());
+        } else if (directory.queryForObject("select count(*) from hero_directory", Map.of(), Long.class) == 0) {
+            List<Hero> heroes = shards.scatter(shard -> shard.query(SELECT, HERO));
+            directory.batchUpdate(INSERT_DIRECTORY, parameters(heroes));
+            LOG.info("Loaded the directory of {} heroes from {} shards", heroes.size(), shards.count());
+        }
+        directory.update("delete from hero", Map.of());
+    }
+
+    @Override
+    public Optional<Hero> findById(Long id) {
+        return shards.shardFor(id).query(SELECT + " where id = :id", Map.of("id", id), HERO)
+                .stream().findFirst();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return findById(id).isPresent();
+    }
+
+    @Override
+    public Iterable<Hero> findAll() {
+        return sorted(shards.scatter(shard -> shard.query(SELECT, HERO)));
+    }
+
+    @Override
+    public Iterable<Hero> findAllById(Iterable<Long> ids) {
+        List<Long> all = new ArrayList<>();
+        ids.forEach(all::add);
+        List<Hero> heroes = new ArrayList<>();
+        shards.byShard(all, Long::longValue).forEach((shard, shardIds) -> heroes.addAll(
+                shards.shard(shard).query(SELECT + " where id in (:ids)", Map.of("ids", shardIds), HERO)));
+        return sorted(heroes);
+    }
+
+    @Override
+    public long count() {
+        return shards.scatter(shard -> shard.queryForList("select count(*) from hero", Map.of(), Long.class))
+                .stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public List<Long> findExistingIds(Collection<Long> ids) {
+        List<Long> existing = new ArrayList<>();
+        findAllById(ids).forEach(hero -> existing.add(hero.getId()));
+        return existing;
+    }
+
+    /**
+     * Looks the names up in the directory, then the heroes in their shards.
+     */
+    @Override
+    public List<Hero> findByNameIn(Collection<String> names) {
+        if (names.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = directory.queryForList("select id from hero_directory where name in (:names)",
+                Map.of("names", names), Long.class);
+        List<Hero> heroes = new ArrayList<>();
+        findAllById(ids).forEach(heroes::add);
+        return heroes;
+    }
+
+    @Override
+    public Iterable<Hero> scanByName(String name) {
+        return sorted(shards.scatter(shard -> shard.query(
+                SELECT + " where lower(name) like CONCAT('%', lower(:contains), '%')",
+                Map.of("contains", name), HERO)));
+    }
+
+    /**
+     * Each shard counts the trigrams of its own heroes, so the counts are added up.
+     */
+    @Override
+    public List<Object[]> countTrigrams(Collection<String> grams) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        shards.scatter(shard -> shard.queryForList(
+                "select gram, heroes from hero_trigram_count where gram in (:grams) and heroes > 0",
+                Map.of("grams", grams)))
+                .forEach(row -> counts.merge((String) row.get("gram"),
+                        ((Number) row.get("heroes")).longValue(), Long::sum));
+        List<Object[]> result = new ArrayList<>(counts.size());
+        counts.forEach((gram, heroes) -> result.add(new Object[] { gram, heroes }));
+        return result;
+    }
+
+    @Override
+    public Iterable<Hero> findByTrigram(String name, String gram) {
+        return sorted(shards.scatter(shard -> shard.query(
+                "select h.id, h.name, h.version from hero h"
+                        + " join hero_trigram t on t.hero_id = h.id and t.gram = :gram"
+                        + " where lower(h.name) like CONCAT('%', lower(:contains), '%')",
+                Map.of("contains", name, "gram", gram), HERO)));
+    }
+
+    /**
+     * Every shard returns its first heroes after {@code after}, and the page is the first of
+     * all of those.
+     */
+    @Override
+    public List<Hero> findPageAfter(Long after, Pageable pageable) {
+        long offset = pageable.getOffset();
+        long limit = offset + pageable.getPageSize();
+        List<Hero> heroes = sorted(shards.scatter(shard -> shard.query(
+                SELECT + " where id > :after order by id limit :limit",
+                Map.of("after", after, "limit", limit), HERO)));
+        return heroes.subList((int) Math.min(offset, heroes.size()), (int) Math.min(limit, heroes.size()));
+    }
+
+    /**
+     * Validated here, as Hibernate would have on flush. A hero with an id is renamed, at its
+     * version if it has one; one without, or whose id no hero has, is created.
+     */
+    @Override
+    @Transactional
+    public <S extends Hero> S save(S hero) {
+        validate(hero);
+        if (hero.getId() != null) {
+            Optional<Hero> current = findById(hero.getId());
+            if (current.isPresent()) {
+                List<Long> versions = hero.getVersion() == null ? null : List.of(hero.getVersion());
+                if (rename(current.get(), hero.getName(), versions) == 0) {
+                    throw new OptimisticLockingFailureException("Hero has changed");
+                }
+                hero.setVersion(current.get().getVersion() + 1);
+                return hero;
+            }
+        }
+        insert(List.of(hero));
+        return hero;
+    }
+
+    @Override
+    @Transactional
+    public <S extends Hero> Iterable<S> saveAll(Iterable<S> heroes) {
+        List<S> created = new ArrayList<>();
+        List<S> saved = new ArrayList<>();
+        for (S hero : heroes) {
+            validate(hero);
+            if (hero.getId() == null) {
+                created.add(hero);
+            } else {
+                save(hero);
+            }
+            saved.add(hero);
+        }
+        insert(created);
+        return saved;
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(List<Hero> heroes) {
+        insert(heroes);
+    }
+
+    @Override
+    @Transactional
+    public int updateName(Long id, String name) {
+        return findById(id).map(hero -> rename(hero, name, null)).orElse(0);
+    }
+
+    @Override
+    @Transactional
+    public int updateNameAtVersion(Long id, String name, Collection<Long> versions) {
+        return findById(id).map(hero -> rename(hero, name, versions)).orElse(0);
+    }
+
+    @Override
+    @Transactional
+    public int deleteOneById(Long id) {
+        return delete(List.of(id));
+    }
+
+    @Override
+    @Transactional
+    public void deleteById(Long id) {
+        if (delete(List.of(id)) == 0) {
+            throw new EmptyResultDataAccessException("No hero with id " + id, 1);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void delete(Hero hero) {
+        delete(List.of(hero.getId()));
+    }
+
+    @Override
+    @Transactional
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        List<Long> all = new ArrayList<>();
+        ids.forEach(all::add);
+        delete(all);
+    }
+
+    @Override
+    @Transactional
+    public int deleteAllByIdIn(Collection<Long> ids) {
+        return delete(ids);
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll(Iterable<? extends Hero> heroes) {
+        List<Long> ids = new ArrayList<>();
+        heroes.forEach(hero -> ids.add(hero.getId()));
+        delete(ids);
+    }
+
+    @Override
+    @Transactional
+    public void deleteAll() {
+        delete(directory.queryForList("select id from hero_directory", Map.of(), Long.class));
+    }
+
+    private void validate(Hero hero) {
+        Set<ConstraintViolation<Hero>> violations = validator.validate(hero);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+    }
+
+    /**
+     * Give the heroes ids and write them to the directory, then to their shards, a batch per
+     * shard.
+     */
+    private void insert(List<? extends Hero> heroes) {
+        if (heroes.isEmpty()) {
+            return;
+        }
+        for (Hero hero : heroes) {
+            if (hero.getId() == null) {
+                hero.setId(nextId());
+            }
+            if (hero.getVersion() == null) {
+                hero.setVersion(0L);
+            }
+        }
+        directory.batchUpdate(INSERT_DIRECTORY, parameters(heroes));
+        insertIntoShards(heroes);
+    }
+
+    private void insertIntoShards(List<? extends Hero> heroes) {
+        shards.byShard(heroes, Hero::getId).forEach((shard, shardHeroes) -> {
+            NamedParameterJdbcTemplate template = shards.shard(shard);
+            List<Long> ids = new ArrayList<>(shardHeroes.size());
+            shardHeroes.forEach(hero -> ids.add(hero.getId()));
+            // Recorded first, so a batch that fails part way is undone too.
+            undo(() -> template.update("delete from hero where id in (:ids)", Map.of("ids", ids)));
+            template.batchUpdate("insert into hero(id, name, version) values (:id, :name, :version)",
+                    parameters(shardHeroes));
+        });
+    }
+
+    /**
+     * @param versions The versions the hero may be at, null for any
+     * @return 1 if renamed, 0 if the hero is not at one of the versions
+     */
+    private int rename(Hero hero, String name, Collection<Long> versions) {
+        if (versions != null && !versions.contains(hero.getVersion())) {
+            return 0;
+        }
+        directory.update("update hero_directory set name = :name where id = :id",
+                Map.of("id", hero.getId(), "name", name));
+        NamedParameterJdbcTemplate shard = shards.shardFor(hero.getId());
+        // Only undone while no later write has been made over it.
+        undo(() -> shard.update(
+                "update hero set name = :name, version = :version where id = :id and version = :version + 1",
+                Map.of("id", hero.getId(), "name", hero.getName(), "version", hero.getVersion())));
+        int updated = shard.update(
+                "update hero set name = :name, version = version + 1 where id = :id and version = :version",
+                Map.of("id", hero.getId(), "name", name, "version", hero.getVersion()));
+        if (updated == 0) {
+            // Changed since it was read, so the directory's rename must not stand either.
+            throw new OptimisticLockingFailureException("Hero has changed");
+        }
+        return updated;
+    }
+
+    private int delete(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        directory.update("delete from hero_directory where id in (:ids)", Map.of("ids", ids));
+        int deleted = 0;
+        for (Map.Entry<Integer, List<Long>> shard : shards.byShard(ids, Long::longValue).entrySet()) {
+            NamedParameterJdbcTemplate template = shards.shard(shard.getKey());
+            Map<String, Object> shardIds = Map.of("ids", shard.getValue());
+            List<Hero> heroes = template.query(SELECT + " where id in (:ids)", shardIds, HERO);
+            undo(() -> template.batchUpdate(
+                    "merge into hero(id, name, version) key(id) values (:id, :name, :version)",
+                    parameters(heroes)));
+            deleted += template.update("delete from hero where id in (:ids)", shardIds);
+        }
+        return deleted;
+    }
+
+    /**
+     * Record how to undo a shard write, should the transaction it is made in not commit.
+     */
+    private void undo(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof ShardWrites && ((ShardWrites) synchronization).repository() == this) {
+                ((ShardWrites) synchronization).undos.addFirst(undo);
+                return;
+            }
+        }
+        ShardWrites writes = new ShardWrites();
+        writes.undos.addFirst(undo);
+        TransactionSynchronizationManager.registerSynchronization(writes);
+    }
+
+    /**
+     * The next id of the current block of hero_seq, taking a new block when it runs out.
+     */
+    private synchronized long nextId() {
+        if (nextId == idLimit) {
+            nextId = directory.queryForObject("select next value for hero_seq", Map.of(), Long.class);
+            idLimit = nextId + ID_BLOCK;
+        }
+        return nextId++;
+    }
+
+    private static SqlParameterSource[] parameters(List<? extends Hero> heroes) {
+        SqlParameterSource[] parameters = new SqlParameterSource[heroes.size()];
+        for (int i = 0; i < heroes.size(); i++) {
+            Hero hero = heroes.get(i);
+            parameters[i] = new MapSqlParameterSource()
+                    .addValue("id", hero.getId())
+                    .addValue("name", hero.getName())
+                    .addValue("version", hero.getVersion());
+        }
+        return parameters;
+    }
+
+    private static List<Hero> sorted(List<Hero> heroes) {
+        heroes.sort(BY_ID);
+        return heroes;
+    }
+
+    /**
+     * The shard writes of one transaction, undone, latest first, if it does not commit.
+     */
+    private final class ShardWrites implements TransactionSynchronization {
+
+        final Deque<Runnable> undos = new ArrayDeque<>();
+
+        ShardedHeroRepository repository() {
+            return ShardedHeroRepository.this;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                return;
+            }
+            LOG.info("Undoing {} shard writes of a transaction that did not commit", undos.size());
+            for (Runnable undo : undos) {
+                try {
+                    undo.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Could not undo a shard write", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.navan.heroesbackend;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.stereotype.Component;
+
+import io.navan.system.Shards;
+
+/**
+ * HeroStreamer for the sharded profile, with a cursor on every shard's hero table at once, each
+ * in id order, and the rows merged into one stream in id order. Only the current row of each
+ * shard is held, so memory stays flat as it does with one table.
+ */
+@Component
+@Primary
+@Profile("sharded")
+public class ShardedHeroStreamer extends HeroStreamer {
+
+    private static final String SELECT_ALL = "select id, name from hero order by id";
+
+    @Autowired
+    Shards shards;
+
+    /**
+     * A shard's cursor, at the row with the id.
+     */
+    private static final class Head {
+        final ResultSet rs;
+        long id;
+
+        Head(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        boolean next() throws SQLException {
+            if (!rs.next()) {
+                return false;
+            }
+            id = rs.getLong(1);
+            return true;
+        }
+    }
+
+    @Override
+    void query(RowCallbackHandler handler) {
+        List<Connection> connections = new ArrayList<>(shards.count());
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparingLong((Head head) -> head.id));
+        try {
+            for (int shard = 0; shard < shards.count(); shard++) {
+                DataSource dataSource = shards.shard(shard).getJdbcTemplate().getDataSource();
+                Connection connection = dataSource.getConnection();
+                connections.add(connection);
+                PreparedStatement statement = connection.prepareStatement(SELECT_ALL);
+                statement.setFetchSize(FETCH_SIZE);
+                Head head = new Head(statement.executeQuery());
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                handler.processRow(head.rs);
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+        } catch (SQLException e) {
+            throw new SQLErrorCodeSQLExceptionTranslator().translate("Streaming heroes", SELECT_ALL, e);
+        } finally {
+            // Closing a connection closes its statement and cursor.
+            connections.forEach(JdbcUtils::closeConnection);
+        }
+    }
+}
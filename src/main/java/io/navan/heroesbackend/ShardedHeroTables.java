@@ -0,0 +1,34 @@
+package io.navan.heroesbackend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.navan.system.Shards;
+
+/**
+ * HeroTables for the sharded profile, where the heroes are in the shards' hero tables and the
+ * application's own database keeps only the hero_directory of names, see ShardedHeroRepository.
+ */
+@Component
+@Primary
+@Profile("sharded")
+public class ShardedHeroTables extends HeroTables {
+
+    @Autowired
+    Shards shards;
+
+    @Override
+    public List<JdbcTemplate> all() {
+        List<JdbcTemplate> all = new ArrayList<>(shards.count());
+        for (int shard = 0; shard < shards.count(); shard++) {
+            all.add(shards.shard(shard).getJdbcTemplate());
+        }
+        return all;
+    }
+}
@@ -0,0 +1,53 @@
+package io.navan.heroesbackend;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Splits text into the lower-cased three character substrings used by the hero name trigram index.
+ * Lower-casing matches H2's LOWER() so that the index agrees with the LIKE it stands in for.
+ */
+public final class Trigrams {
+
+    public static final int N = 3;
+
+    private Trigrams() {}
+
+    /**
+     * @param text The text to split, may be null
+     * @return the distinct trigrams of the lower-cased text, empty if shorter than three characters
+     */
+    public static Set<String> of(String text) {
+        if (text == null || text.length() < N) {
+            return Collections.emptySet();
+        }
+        String lower = text.toLowerCase();
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + N <= lower.length(); i++) {
+            grams.add(lower.substring(i, i + N));
+        }
+        return grams;
+    }
+
+    /**
+     * The index can only stand in for a substring match when every gram of the search text must
+     * appear in the name. LIKE wildcards and escapes in the search text break that, as do texts too
+     * short to have a gram.
+     *
+     * @param contains The text being searched for
+     * @return true if the trigram index can narrow the search
+     */
+    public static boolean canNarrow(String contains) {
+        if (contains == null || contains.length() < N) {
+            return false;
+        }
+        for (int i = 0; i < contains.length(); i++) {
+            char c = contains.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package io.navan.system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import io.swagger.models.Swagger;
+import springfox.documentation.service.Documentation;
+import springfox.documentation.spring.web.DocumentationCache;
+import springfox.documentation.spring.web.json.JsonSerializer;
+import springfox.documentation.spring.web.plugins.Docket;
+import springfox.documentation.swagger2.mappers.ServiceModelToSwagger2Mapper;
+
+/**
+ * Writes the Swagger document springfox serves at /v2/api-docs to a file once the application
+ * is ready. The build runs the application with it, see the apiDocs task, so that the fast
+ * profile can serve the document without springfox, see StaticApiDocsController.
+ * The host is left out, so the document is good for wherever it is served from.
+ */
+class ApiDocsWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApiDocsWriter.class);
+
+    private final Path output;
+    private final DocumentationCache documentationCache;
+    private final ServiceModelToSwagger2Mapper mapper;
+    private final JsonSerializer jsonSerializer;
+
+    ApiDocsWriter(Path output, DocumentationCache documentationCache,
+            ServiceModelToSwagger2Mapper mapper, JsonSerializer jsonSerializer) {
+        this.output = output;
+        this.documentationCache = documentationCache;
+        this.mapper = mapper;
+        this.jsonSerializer = jsonSerializer;
+    }
+
+    // Ahead of StartupExit, which may end the application once it is ready.
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void write() {
+        Documentation documentation = documentationCache.documentationByGroup(Docket.DEFAULT_GROUP_NAME);
+        Swagger swagger = mapper.mapDocumentation(documentation).basePath("/");
+        try {
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            Files.writeString(output, jsonSerializer.toJson(swagger).value(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.info("Wrote the API document to {}", output);
+    }
+}
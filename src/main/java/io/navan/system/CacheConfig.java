@@ -0,0 +1,60 @@
+package io.navan.system;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Bounded in-process caches in front of HeroRepository.
+ * Hit, miss and eviction counts are recorded and published as the cache.gets and cache.evictions
+ * metrics, see /actuator/metrics.
+ * Puts and evictions made inside a transaction wait for it to commit, so a cache is never
+ * refilled with rows that are about to change.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /** Heroes by id. Entries are replaced or evicted one by one as heroes are written. */
+    public static final String HEROES = "heroes";
+
+    /** Results of name searches by search text. Cleared on any write. */
+    public static final String HERO_SEARCHES = "heroSearches";
+
+    @Value("${heroes.cache.heroes.maximum-size:10000}")
+    private long heroesMaximumSize;
+
+    @Value("${heroes.cache.heroes.expire-after-write:10m}")
+    private Duration heroesExpireAfterWrite;
+
+    @Value("${heroes.cache.searches.maximum-size:1000}")
+    private long searchesMaximumSize;
+
+    @Value("${heroes.cache.searches.expire-after-write:1m}")
+    private Duration searchesExpireAfterWrite;
+
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.setAllowNullValues(false);
+        cacheManager.registerCustomCache(HEROES, Caffeine.newBuilder()
+                .maximumSize(heroesMaximumSize)
+                .expireAfterWrite(heroesExpireAfterWrite)
+                .recordStats()
+                .build());
+        cacheManager.registerCustomCache(HERO_SEARCHES, Caffeine.newBuilder()
+                .maximumSize(searchesMaximumSize)
+                .expireAfterWrite(searchesExpireAfterWrite)
+                .recordStats()
+                .build());
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
@@ -2,6 +2,8 @@ package io.navan.system;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.persistence.RollbackException;
@@ -10,7 +12,11 @@ import javax.validation.ConstraintViolationException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.data.rest.webmvc.ResourceNotFoundException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -21,14 +27,24 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.util.NestedServletException;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import io.navan.heroesbackend.Hero;
 import io.navan.heroesbackend.HeroController;
+import io.r2dbc.spi.R2dbcException;
 
 @ControllerAdvice(basePackageClasses = HeroController.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ControllerExceptionHandler {
     
     private static final Logger LOG = LoggerFactory.getLogger(ControllerExceptionHandler.class);
     
+    static final String ERRORS = "heroes.errors";
+
+    // One counter per status, created on first use. Registered with the global registry, which
+    // Boot adds its registry to, so the handler can still be created with new.
+    private static final Map<HttpStatus, Counter> errorCounters = new ConcurrentHashMap<>();
+
     private static Pattern heroTableNamePattern; 
     static {
         heroTableNamePattern = Pattern.compile("ON PUBLIC\\.HERO\\(NAME\\)");
@@ -54,8 +70,7 @@ public class ControllerExceptionHandler {
 
         ValidationError apiError = new ValidationError(HttpStatus.BAD_REQUEST,
                 "Validation Errors", errors);
-        return new ResponseEntity<ValidationError>(apiError, new HttpHeaders(),
-                apiError.getHttpStatus());
+        return respond(apiError);
     }
     
     /**
@@ -72,41 +87,79 @@ public class ControllerExceptionHandler {
     public ResponseEntity<ValidationError> handleDataIntegrityViolation(
             DataIntegrityViolationException ex, WebRequest request) {
         //LOG.debug("DataIntegrityViolation: " + ex.getLocalizedMessage(), ex);
+        if (ex instanceof DuplicateKeyException) {  //caught by HeroNames before the insert
+            ValidationError apiError = new ValidationError(HttpStatus.BAD_REQUEST,
+                    ex.getMessage(),
+                    new ValidationError.Error(Hero.class.getName(), "name", "Already Exists"));
+            return respond(apiError);
+        }
         if (ex.getCause() instanceof org.hibernate.exception.ConstraintViolationException) {
             org.hibernate.exception.ConstraintViolationException cve =
                     (org.hibernate.exception.ConstraintViolationException)ex.getCause();
-            String sqlstate = cve.getSQLState();
-
-            if (sqlstate.equals("23505")) { //23505 is a unique key violation
-                boolean isFoundHeroTableNameInMessage = heroTableNamePattern
-                        .matcher(cve.getConstraintName()).find();
-                ValidationError apiError = new ValidationError(HttpStatus.BAD_REQUEST,
-                        cve.getSQLException().getMessage(),
-                        new ValidationError.Error(
-                                isFoundHeroTableNameInMessage ?
-                                Hero.class.getName() : "unknown.class", "name", "Already Exists"));
-                return new ResponseEntity<ValidationError>(apiError,
-                        new HttpHeaders(),
-                        apiError.getHttpStatus());            
-            } else {    //not 23505? then I don't know why this happened and thus this an internal server error
-                ValidationError apiError = new ValidationError(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "Unexpected SQLState: " + sqlstate + ".\n" +
-                                cve.getSQLException().getMessage(),
-                        new ArrayList<>());
-                return new ResponseEntity<ValidationError>(apiError,
-                        new HttpHeaders(),
-                        apiError.getHttpStatus());            
-            }
+            return handleSqlState(cve.getSQLState(), cve.getConstraintName(),
+                    cve.getSQLException().getMessage());
+        }
+        if (ex.getCause() instanceof R2dbcException) {  //from the reactive profile
+            R2dbcException re = (R2dbcException)ex.getCause();
+            return handleSqlState(re.getSqlState(), re.getMessage(), re.getMessage());
         }
         ValidationError apiError = new ValidationError(HttpStatus.INTERNAL_SERVER_ERROR,
                 "Unexpected DataIntegrityViolation.\n" + ex.getMessage(),
                 new ArrayList<>());
-        return new ResponseEntity<ValidationError>(apiError,
-                new HttpHeaders(),
-                apiError.getHttpStatus());            
+        return respond(apiError);
     }
     
 
+    private ResponseEntity<ValidationError> handleSqlState(String sqlstate,
+            String constraintName, String sqlMessage) {
+        if (sqlstate.equals("23505")) { //23505 is a unique key violation
+            boolean isFoundHeroTableNameInMessage = heroTableNamePattern
+                    .matcher(constraintName).find();
+            ValidationError apiError = new ValidationError(HttpStatus.BAD_REQUEST,
+                    sqlMessage,
+                    new ValidationError.Error(
+                            isFoundHeroTableNameInMessage ?
+                            Hero.class.getName() : "unknown.class", "name", "Already Exists"));
+            return respond(apiError);
+        } else {    //not 23505? then I don't know why this happened and thus this an internal server error
+            ValidationError apiError = new ValidationError(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Unexpected SQLState: " + sqlstate + ".\n" +
+                            sqlMessage,
+                    new ArrayList<>());
+            return respond(apiError);
+        }
+    }
+
+    /**
+     * Optimistic locking failures, whether from an If-Match that no longer matches or from a
+     * version check on save, get mapped to Http PRECONDITION_FAILED.
+     * @param ex The exception
+     * @param request The request
+     * @return ResponseEntity
+     */
+    @ExceptionHandler({ OptimisticLockingFailureException.class })
+    public ResponseEntity<ValidationError> handleOptimisticLockingFailure(
+            OptimisticLockingFailureException ex, WebRequest request) {
+        ValidationError apiError = new ValidationError(HttpStatus.PRECONDITION_FAILED, "Hero has changed",
+                new ValidationError.Error(Hero.class.getName(), "version", "Hero has changed since it was read"));
+        return respond(apiError);
+    }
+
+    /**
+     * Timing out waiting on the database, such as for a group commit, gets mapped to Http
+     * SERVICE_UNAVAILABLE, as trying again later may well succeed.
+     * @param ex The exception
+     * @param request The request
+     * @return ResponseEntity
+     */
+    @ExceptionHandler({ QueryTimeoutException.class })
+    public ResponseEntity<ValidationError> handleQueryTimeout(
+            QueryTimeoutException ex, WebRequest request) {
+        ValidationError apiError = new ValidationError(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(),
+                new ValidationError.Error("unknown.class", "unknown.property", "Timed out"));
+        return respond(apiError);
+    }
+
     /**
      * Resource not found exception gets mapped to Http NOT_FOUND
      * @param ex The exception
@@ -118,7 +171,7 @@ public class ControllerExceptionHandler {
             ResourceNotFoundException ex, WebRequest request) {
         ValidationError apiError = new ValidationError(HttpStatus.NOT_FOUND, "Resource not found",
                 new ValidationError.Error(Hero.class.getName(), "*", "Hero not found"));
-        return new ResponseEntity<ValidationError>(apiError, new HttpHeaders(), HttpStatus.NOT_FOUND);
+        return respond(apiError);
     }
 
     /**
@@ -151,6 +204,18 @@ public class ControllerExceptionHandler {
         ValidationError apiError = new ValidationError(
                 HttpStatus.INTERNAL_SERVER_ERROR, ex.getLocalizedMessage(),
                 new ValidationError.Error("unknown.class", "unknown.property", "System error"));
+        return respond(apiError);
+    }
+
+    /**
+     * Count the error by its status and build the response for it.
+     */
+    private static ResponseEntity<ValidationError> respond(ValidationError apiError) {
+        errorCounters.computeIfAbsent(apiError.getHttpStatus(), status -> Counter.builder(ERRORS)
+                .description("ValidationErrors returned, by HTTP status")
+                .tag("status", Integer.toString(status.value()))
+                .register(Metrics.globalRegistry))
+                .increment();
         return new ResponseEntity<ValidationError>(apiError, new HttpHeaders(), apiError.getHttpStatus());
     }
 
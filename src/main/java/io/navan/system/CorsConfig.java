@@ -2,25 +2,46 @@ package io.navan.system;
 
 import java.util.Arrays;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import org.springframework.web.cors.reactive.CorsWebFilter;
 import org.springframework.web.filter.CorsFilter;
 
 @Configuration
 public class CorsConfig {
   @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
   public CorsFilter corsFilter() {
+      UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+      source.registerCorsConfiguration("/**", corsConfiguration());
+
+      return new CorsFilter(source);
+  }
+
+  /**
+   * Same CORS rules for the reactive profile.
+   */
+  @Bean
+  @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+  public CorsWebFilter corsWebFilter() {
+      org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource source =
+              new org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource();
+      source.registerCorsConfiguration("/**", corsConfiguration());
+
+      return new CorsWebFilter(source);
+  }
+
+  private static CorsConfiguration corsConfiguration() {
       CorsConfiguration config = new CorsConfiguration();
       config.addAllowedOrigin("*");
       config.addAllowedHeader("*");
+      config.setExposedHeaders(Arrays.asList(
+    		  new String[] {"ETag", "Location", "Link"}));
       config.setAllowedMethods(Arrays.asList(
-    		  new String[] {"OPTIONS", "GET", "POST", "PUT", "DELETE"}));
-
-      UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
-      source.registerCorsConfiguration("/**", config);
-
-      return new CorsFilter(source);
+    		  new String[] {"OPTIONS", "GET", "POST", "PUT", "PATCH", "DELETE"}));
+      return config;
   }
 }
@@ -0,0 +1,105 @@
+package io.navan.system;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * A primary and a replica connection pool, with read-only transactions routed to the replica,
+ * see ReplicaRoutingDataSource. Both pools are sized by spring.datasource.hikari and publish
+ * the hikaricp.* metrics under their own pool tag, so the split can be seen.
+ * The replica is heroes.datasource.replica.url; without one, a local H2 database mirroring the
+ * primary stands in for it. Reads from the replica are kept out of the shared caches while it
+ * may be behind, see ReplicaCacheGuard.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Value("${heroes.datasource.replica.url:}")
+    private String replicaUrl;
+
+    @Value("${heroes.datasource.replica.username:}")
+    private String replicaUsername;
+
+    @Value("${heroes.datasource.replica.password:}")
+    private String replicaPassword;
+
+    @Value("${heroes.datasource.replica.stickiness:5s}")
+    private Duration stickiness;
+
+    // A name of its own for each application context, as the primary's has.
+    private final String mirrorUrl = "jdbc:h2:mem:replica-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName(ReplicaRoutingDataSource.PRIMARY);
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties) {
+        boolean mirror = replicaUrl.isEmpty();
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(mirror ? mirrorUrl : replicaUrl)
+                .username(mirror ? properties.determineUsername() : replicaUsername)
+                .password(mirror ? properties.determinePassword() : replicaPassword)
+                .build();
+        dataSource.setPoolName(ReplicaRoutingDataSource.REPLICA);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    /**
+     * The DataSource the application uses, JPA and JdbcTemplate alike.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties properties) {
+        return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(
+                primaryDataSource(properties), replicaDataSource(properties)));
+    }
+
+    @Bean(initMethod = "link")
+    @DependsOnDatabaseInitialization
+    @ConditionalOnExpression("'${heroes.datasource.replica.url:}' == ''")
+    H2ReplicaMirror h2ReplicaMirror(DataSourceProperties properties) {
+        return new H2ReplicaMirror(replicaDataSource(properties), properties.determineUrl(),
+                properties.determineUsername(), properties.determinePassword());
+    }
+
+    /**
+     * Writes are counted by the WriteTracker of servlet applications.
+     */
+    @Bean
+    public ReplicaCacheGuard replicaCacheGuard(ObjectProvider<WriteTracker> writeTracker) {
+        return new ReplicaCacheGuard(writeTracker.getIfAvailable(), stickiness);
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public ReplicaStickinessFilter replicaStickinessFilter() {
+        return new ReplicaStickinessFilter(stickiness);
+    }
+}
@@ -0,0 +1,26 @@
+package io.navan.system;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import io.navan.heroesbackend.HeroController;
+
+/**
+ * The fast profile, for instances that start often. Beans are created lazily, see
+ * application-fast.yml, except for HeroController and what it uses, so that the hero API
+ * (the database pools, Hibernate and the caches behind it) is ready when the port opens and
+ * the first request does not pay for it. The replica mirror is created as ever too, as nothing
+ * asks for it: reads would find no tables otherwise. Actuator endpoints, metrics binders and
+ * the like are created when first used.
+ */
+@Configuration
+@Profile("fast")
+public class FastStartupConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter heroApiEagerly() {
+        return LazyInitializationExcludeFilter.forBeanTypes(HeroController.class, H2ReplicaMirror.class);
+    }
+}
@@ -0,0 +1,50 @@
+package io.navan.system;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Stands in for a replica when none is configured: a second in-memory H2 database whose tables
+ * are read-only links to the primary's. It is always in step with the primary, and refuses any
+ * write routed to it by mistake.
+ */
+class H2ReplicaMirror {
+
+    private static final Logger LOG = LoggerFactory.getLogger(H2ReplicaMirror.class);
+
+    // Every table the application reads. hero_seq is only used by inserts, on the primary.
+    static final String[] TABLES = { "HERO", "HERO_TRIGRAM", "HERO_TRIGRAM_COUNT", "HERO_CHANGE_COUNTER",
+            "HERO_DIRECTORY" };
+
+    private final DataSource replica;
+    private final String primaryUrl;
+    private final String username;
+    private final String password;
+
+    H2ReplicaMirror(DataSource replica, String primaryUrl, String username, String password) {
+        this.replica = replica;
+        this.primaryUrl = primaryUrl;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Link the tables, which must already exist in the primary.
+     */
+    void link() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(replica);
+        for (String table : TABLES) {
+            jdbcTemplate.execute("create linked table " + table + "('org.h2.Driver', "
+                    + literal(primaryUrl) + ", " + literal(username) + ", " + literal(password) + ", "
+                    + literal(table) + ") readonly");
+        }
+        LOG.info("Replica mirrors {} tables of {}", TABLES.length, primaryUrl);
+    }
+
+    private static String literal(String value) {
+        return "'" + (value == null ? "" : value.replace("'", "''")) + "'";
+    }
+}
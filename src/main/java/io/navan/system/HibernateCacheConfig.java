@@ -0,0 +1,102 @@
+package io.navan.system;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+
+import javax.cache.CacheManager;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+
+/**
+ * Hibernate's second-level cache: Hero entities and cached query results, in bounded Caffeine
+ * caches behind Hibernate's JCache region factory. Unlike the caches in {@link CacheConfig},
+ * which sit in front of HeroRepository, these are kept in step by Hibernate itself, including
+ * on bulk JPQL writes. Hit and miss counts are published as the hibernate.* metrics.
+ * Read-only transactions that go to a replica which may be behind read these caches without
+ * filling them, see ReplicaCacheJpaDialect.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    /** Region of Hero entities, see Hero. */
+    public static final String HERO_REGION = "hero";
+
+    /** Region of cached query results, see HeroRepository. */
+    public static final String QUERY_REGION = "default-query-results-region";
+
+    /**
+     * When each table was last written, used to tell whether a cached query result is still
+     * good. One entry per table, and must never be evicted.
+     */
+    static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Value("${heroes.cache.entities.maximum-size:10000}")
+    private long entitiesMaximumSize;
+
+    @Value("${heroes.cache.entities.expire-after-write:10m}")
+    private Duration entitiesExpireAfterWrite;
+
+    @Value("${heroes.cache.queries.maximum-size:1000}")
+    private long queriesMaximumSize;
+
+    @Value("${heroes.cache.queries.expire-after-write:1m}")
+    private Duration queriesExpireAfterWrite;
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager() {
+        // A provider of its own rather than the shared one from Caching, so that each application
+        // context gets its own caches.
+        CacheManager cacheManager = new CaffeineCachingProvider()
+                .getCacheManager(URI.create("hibernate"), getClass().getClassLoader());
+        cacheManager.createCache(HERO_REGION,
+                configuration(OptionalLong.of(entitiesMaximumSize), entitiesExpireAfterWrite));
+        cacheManager.createCache(QUERY_REGION,
+                configuration(OptionalLong.of(queriesMaximumSize), queriesExpireAfterWrite));
+        cacheManager.createCache(TIMESTAMPS_REGION,
+                configuration(OptionalLong.empty(), null));
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> properties.put("hibernate.javax.cache.cache_manager", hibernateCacheManager);
+    }
+
+    /**
+     * The transaction manager takes its dialect from the entity manager factory once it is set
+     * up, so the dialect is replaced after that.
+     */
+    @Bean
+    public static BeanPostProcessor replicaCacheJpaDialectPostProcessor(ObjectProvider<ReplicaCacheGuard> guard) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof JpaTransactionManager) {
+                    ((JpaTransactionManager) bean).setJpaDialect(new ReplicaCacheJpaDialect(guard.getObject()));
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> configuration(OptionalLong maximumSize,
+            Duration expireAfterWrite) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(maximumSize);
+        if (expireAfterWrite != null) {
+            configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        }
+        configuration.setStatisticsEnabled(true);
+        return configuration;
+    }
+}
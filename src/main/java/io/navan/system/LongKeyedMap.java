@@ -0,0 +1,267 @@
+package io.navan.system;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * A map from primitive long keys to values, with no boxing of keys and no entry objects.
+ * Keys and values are held in parallel arrays, probed linearly from a hash of the key.
+ * The map is split into stripes by hash, each with its own table and lock. Writers lock their
+ * stripe; readers take no lock at all. A slot, once given a key, keeps it until the table is
+ * rebuilt, and its value is published with release semantics after the key is written, so a
+ * reader that sees a value also sees its key. Removed entries leave a marker in their slot,
+ * which the key takes again if put back; tables are rebuilt, without markers, when three
+ * quarters of their slots are in use, and replaced whole, so a reader holding the old table
+ * still reads a consistent one.
+ *
+ * @param <V> The value
+ */
+public class LongKeyedMap<V> {
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        int used;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile Table table = new Table(MIN_CAPACITY);
+        int live;
+    }
+
+    /**
+     * @param stripes The number of stripes, rounded up to a power of two
+     */
+    public LongKeyedMap(int stripes) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit((stripes - 1) << 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * Functions given to {@link #forEach(Visitor)}.
+     */
+    @FunctionalInterface
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    /**
+     * @return the value for the key, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        Table table = stripe(hash).table;
+        int mask = table.keys.length - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            Object value = VALUES.getAcquire(table.values, i);
+            if (value == null) {
+                return null;
+            }
+            if (table.keys[i] == key) {
+                return value == REMOVED ? null : (V) value;
+            }
+        }
+    }
+
+    /**
+     * @return the value before, null if there was none
+     */
+    public V put(long key, V value) {
+        Object[] before = new Object[1];
+        compute(key, current -> {
+            before[0] = current;
+            return value;
+        });
+        @SuppressWarnings("unchecked")
+        V previous = (V) before[0];
+        return previous;
+    }
+
+    /**
+     * @return the value removed, null if there was none
+     */
+    public V remove(long key) {
+        Object[] before = new Object[1];
+        compute(key, current -> {
+            before[0] = current;
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        V previous = (V) before[0];
+        return previous;
+    }
+
+    /**
+     * Replace the value for the key with what the function makes of it, atomically. The
+     * function runs holding the key's stripe lock, so other writes to the stripe wait for it,
+     * and anything it does is ordered with the writes to the key before and after.
+     *
+     * @param remapping Given the current value, null if none, returns the new one, null to
+     *            remove it
+     * @return the new value
+     */
+    @SuppressWarnings("unchecked")
+    public V compute(long key, UnaryOperator<V> remapping) {
+        long hash = hash(key);
+        Stripe stripe = stripe(hash);
+        stripe.lock.lock();
+        try {
+            Table table = stripe.table;
+            int slot = slot(table, key, hash);
+            Object current = slot < 0 ? null : table.values[slot];
+            V value = remapping.apply(current == REMOVED ? null : (V) current);
+            boolean present = current != null && current != REMOVED;
+            if (value == null) {
+                if (present) {
+                    VALUES.setRelease(table.values, slot, REMOVED);
+                    stripe.live--;
+                    size.decrementAndGet();
+                }
+                return null;
+            }
+            if (slot >= 0) {
+                VALUES.setRelease(table.values, slot, value);
+            } else {
+                if ((table.used + 1) * 4 > table.keys.length * 3) {
+                    table = rebuild(stripe);
+                }
+                slot = -slot(table, key, hash) - 1;
+                table.keys[slot] = key;
+                VALUES.setRelease(table.values, slot, value);
+                table.used++;
+            }
+            if (!present) {
+                stripe.live++;
+                size.incrementAndGet();
+            }
+            return value;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of keys with values
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Visit every key and value. Writes made while visiting may or may not be seen.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (Stripe stripe : stripes) {
+            Table table = stripe.table;
+            for (int i = 0; i < table.keys.length; i++) {
+                Object value = VALUES.getAcquire(table.values, i);
+                if (value != null && value != REMOVED) {
+                    visitor.visit(table.keys[i], (V) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove every key, holding every stripe lock at once, so no write lands in between.
+     *
+     * @param whileLocked Run holding the locks, just before the map is emptied, so it can still
+     *            visit the entries being removed
+     */
+    public void clear(Runnable whileLocked) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+        try {
+            whileLocked.run();
+            for (Stripe stripe : stripes) {
+                size.addAndGet(-stripe.live);
+                stripe.live = 0;
+                stripe.table = new Table(MIN_CAPACITY);
+            }
+        } finally {
+            for (Stripe stripe : stripes) {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * @return the key's slot, or -(the empty slot it would go in) - 1
+     */
+    private static int slot(Table table, long key, long hash) {
+        int mask = table.keys.length - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            if (table.values[i] == null) {
+                return -i - 1;
+            }
+            if (table.keys[i] == key) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * A new table for the stripe, with room for twice its live entries and no removed ones.
+     */
+    private static Table rebuild(Stripe stripe) {
+        Table old = stripe.table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < (stripe.live + 1) * 2) {
+            capacity <<= 1;
+        }
+        Table table = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            Object value = old.values[i];
+            if (value != null && value != REMOVED) {
+                int slot = -slot(table, old.keys[i], hash(old.keys[i])) - 1;
+                table.keys[slot] = old.keys[i];
+                table.values[slot] = value;
+                table.used++;
+            }
+        }
+        stripe.table = table;
+        return table;
+    }
+
+    /**
+     * MurmurHash3's 64 bit finalizer, so that sequential ids spread over stripes and slots.
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
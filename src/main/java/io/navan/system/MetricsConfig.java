@@ -0,0 +1,133 @@
+package io.navan.system;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics beyond the ones Boot publishes for requests, repositories and the connection pool.
+ * See management.metrics in application.yml.
+ */
+@Configuration
+public class MetricsConfig {
+
+    public static final String SERIALIZATION = "heroes.serialization";
+
+    /**
+     * A body written by a message converter, from the object a controller returned.
+     */
+    public static final String CONVERTER = "converter";
+
+    /**
+     * A body serialized ahead of the requests it is sent to, such as the hero list snapshot.
+     */
+    public static final String SNAPSHOT = "snapshot";
+
+    /**
+     * A body written as it is read from the database, so its time includes the reading.
+     */
+    public static final String STREAM = "stream";
+
+    /**
+     * Something that writes a body.
+     */
+    @FunctionalInterface
+    public interface BodyWrite {
+        void write() throws IOException;
+    }
+
+    /**
+     * The timer for one way of writing bodies of one media type. Timers are looked up once and
+     * read with System.nanoTime, so timing a write allocates nothing.
+     *
+     * @param type The media type written, such as json or cbor
+     * @param body How it is written: CONVERTER, SNAPSHOT or STREAM
+     */
+    public static Timer serializationTimer(MeterRegistry meterRegistry, String type, String body) {
+        return Timer.builder(SERIALIZATION)
+                .description("Time to write response bodies, by media type and how they are written")
+                .tag("type", type)
+                .tag("body", body)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Time the write, whether or not it completes.
+     */
+    public static void time(Timer timer, BodyWrite write) throws IOException {
+        long start = System.nanoTime();
+        try {
+            write.write();
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Boot's JSON converter, timing each body it writes, so serialization time can be told
+     * apart from the repository time within a request.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(
+            ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        Timer timer = serializationTimer(meterRegistry, "json", CONVERTER);
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException {
+                time(timer, () -> super.writeInternal(object, type, outputMessage));
+            }
+        };
+    }
+
+    /**
+     * The CBOR converter Spring MVC would add by default, timed as the JSON one is.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MappingJackson2CborHttpMessageConverter mappingJackson2CborHttpMessageConverter(
+            Jackson2ObjectMapperBuilder builder, MeterRegistry meterRegistry) {
+        Timer timer = serializationTimer(meterRegistry, "cbor", CONVERTER);
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build()) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException {
+                time(timer, () -> super.writeInternal(object, type, outputMessage));
+            }
+        };
+    }
+
+    /**
+     * The Smile converter Spring MVC would add by default, timed as the JSON one is.
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public MappingJackson2SmileHttpMessageConverter mappingJackson2SmileHttpMessageConverter(
+            Jackson2ObjectMapperBuilder builder, MeterRegistry meterRegistry) {
+        Timer timer = serializationTimer(meterRegistry, "smile", CONVERTER);
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build()) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                    throws IOException {
+                time(timer, () -> super.writeInternal(object, type, outputMessage));
+            }
+        };
+    }
+}
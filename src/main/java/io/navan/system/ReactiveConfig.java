@@ -0,0 +1,55 @@
+package io.navan.system;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * Runtime for the reactive profile, where the application is a WebFlux application on Netty.
+ * The R2DBC url points at the same in-memory database as the JDBC datasource, so the schema,
+ * triggers and seed data of schema.sql and data.sql are shared by both.
+ * The ConnectionFactory is kept out of the context on purpose: as a bean it would make Boot
+ * drop the JDBC DataSource.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveConfig.class);
+
+    @Value("${heroes.r2dbc.url}")
+    String url;
+
+    // The JDBC datasource's credentials, which are those of the database schema.sql created.
+    @Value("${spring.datasource.username:sa}")
+    String username;
+
+    @Value("${spring.datasource.password:}")
+    String password;
+
+    @Bean
+    public DatabaseClient databaseClient() {
+        LOG.info("Handling requests reactively over {}", url);
+        return DatabaseClient.create(ConnectionFactories.get(ConnectionFactoryOptions.parse(url)
+                .mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build()));
+    }
+
+    /**
+     * Netty rather than Tomcat, which is also on the classpath for the servlet runtime.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
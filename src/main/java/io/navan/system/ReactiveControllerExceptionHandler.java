@@ -0,0 +1,50 @@
+package io.navan.system;
+
+import javax.validation.ConstraintViolationException;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.rest.webmvc.ResourceNotFoundException;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import io.navan.heroesbackend.ReactiveHeroController;
+
+/**
+ * Error handling for the reactive profile. Hands every exception to
+ * {@link ControllerExceptionHandler}, none of whose handlers use the servlet WebRequest,
+ * so errors get the same status and ValidationError body whichever profile is running.
+ */
+@ControllerAdvice(assignableTypes = ReactiveHeroController.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveControllerExceptionHandler {
+
+    private final ControllerExceptionHandler handler = new ControllerExceptionHandler();
+
+    @ExceptionHandler({ ConstraintViolationException.class })
+    public ResponseEntity<ValidationError> handleConstraintViolation(ConstraintViolationException ex) {
+        return handler.handleConstraintViolation(ex, null);
+    }
+
+    @ExceptionHandler({ DataIntegrityViolationException.class })
+    public ResponseEntity<ValidationError> handleDataIntegrityViolation(DataIntegrityViolationException ex) {
+        return handler.handleDataIntegrityViolation(ex, null);
+    }
+
+    @ExceptionHandler({ OptimisticLockingFailureException.class })
+    public ResponseEntity<ValidationError> handleOptimisticLockingFailure(OptimisticLockingFailureException ex) {
+        return handler.handleOptimisticLockingFailure(ex, null);
+    }
+
+    @ExceptionHandler({ ResourceNotFoundException.class })
+    public ResponseEntity<ValidationError> handleResourceNotFoundException(ResourceNotFoundException ex) {
+        return handler.handleResourceNotFoundException(ex, null);
+    }
+
+    @ExceptionHandler({ Exception.class })
+    public ResponseEntity<ValidationError> handleAll(Exception ex) {
+        return handler.handleAll(ex, null);
+    }
+}
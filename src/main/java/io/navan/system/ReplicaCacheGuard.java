@@ -0,0 +1,36 @@
+package io.navan.system;
+
+import java.time.Duration;
+
+/**
+ * Keeps rows read from a replica that may be behind out of the caches every request shares, the
+ * caches in front of HeroRepository and Hibernate's second-level and query caches. Were they
+ * let in, a read just after a write could put the row from before it in a cache, to be served
+ * from there to the client that wrote, held to the primary or not, until it expired.
+ * The replica may be behind while a write is in progress and for the stickiness after one
+ * finishes, as long as it never lags more than that. Reads held to the primary are always
+ * current, and so always cached.
+ * Writes are told by WriteTracker, so writes made around the API are not seen; without one, as
+ * outside a servlet application, there are no writes to wait for.
+ */
+public class ReplicaCacheGuard {
+
+    private final WriteTracker writes;
+    private final Duration stickiness;
+
+    /**
+     * @param writes The write tracker, null if there is none
+     * @param stickiness How long after a write the replica may be behind
+     */
+    public ReplicaCacheGuard(WriteTracker writes, Duration stickiness) {
+        this.writes = writes;
+        this.stickiness = stickiness;
+    }
+
+    /**
+     * @return true if what the current thread reads may be put in a shared cache
+     */
+    public boolean mayCache() {
+        return ReplicaRoutingDataSource.isHeldToPrimary() || writes == null || writes.quietFor(stickiness);
+    }
+}
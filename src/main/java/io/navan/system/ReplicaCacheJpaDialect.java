@@ -0,0 +1,63 @@
+package io.navan.system;
+
+import java.sql.SQLException;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * Begins read-only transactions that go to a replica which may be behind with the cache store
+ * mode set to BYPASS, so the entities and query results they read are taken from Hibernate's
+ * second-level and query caches but never put in them, see ReplicaCacheGuard. The store mode is
+ * put back when the transaction ends, as the entity manager can outlive it.
+ */
+class ReplicaCacheJpaDialect extends HibernateJpaDialect {
+
+    static final String STORE_MODE = "javax.persistence.cache.storeMode";
+
+    private final ReplicaCacheGuard guard;
+
+    private static final class TransactionData {
+        final Object data;
+        final EntityManager entityManager;
+        final Object storeMode;
+
+        TransactionData(Object data, EntityManager entityManager, Object storeMode) {
+            this.data = data;
+            this.entityManager = entityManager;
+            this.storeMode = storeMode;
+        }
+    }
+
+    ReplicaCacheJpaDialect(ReplicaCacheGuard guard) {
+        this.guard = guard;
+    }
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws PersistenceException, SQLException {
+        Object data = super.beginTransaction(entityManager, definition);
+        if (!definition.isReadOnly() || guard.mayCache()) {
+            return data;
+        }
+        Object storeMode = entityManager.getProperties().get(STORE_MODE);
+        entityManager.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+        return new TransactionData(data, entityManager, storeMode);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof TransactionData) {
+            TransactionData data = (TransactionData) transactionData;
+            data.entityManager.setProperty(STORE_MODE,
+                    data.storeMode == null ? CacheStoreMode.USE : data.storeMode);
+            super.cleanupTransaction(data.data);
+        } else {
+            super.cleanupTransaction(transactionData);
+        }
+    }
+}
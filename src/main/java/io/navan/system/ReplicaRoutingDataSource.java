@@ -0,0 +1,56 @@
+package io.navan.system;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends read-only transactions to the replica pool and everything else, writes and reads made
+ * outside a read-only transaction alike, to the primary. A thread can be held to the primary,
+ * as requests are for a while after their client has written, so it reads its own writes.
+ * Must sit behind a LazyConnectionDataSourceProxy, so that the connection is only chosen once
+ * the transaction has been marked read-only.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+    static final String REPLICA = "replica";
+
+    private static final ThreadLocal<Boolean> primaryOnly = new ThreadLocal<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Hold the current thread to the primary until {@link #release()}.
+     */
+    public static void holdToPrimary() {
+        primaryOnly.set(Boolean.TRUE);
+    }
+
+    public static void release() {
+        primaryOnly.remove();
+    }
+
+    /**
+     * @return true if the current thread is held to the primary
+     */
+    public static boolean isHeldToPrimary() {
+        return primaryOnly.get() != null;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && primaryOnly.get() == null) {
+            return REPLICA;
+        }
+        return PRIMARY;
+    }
+}
@@ -0,0 +1,54 @@
+package io.navan.system;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * Holds requests that write, and requests from clients that wrote recently, to the primary
+ * database, so a client always reads its own writes however far the replica is behind.
+ * A client counts as having written recently while it returns the cookie set on its writes,
+ * which lasts as long as the replica is allowed to lag.
+ */
+public class ReplicaStickinessFilter extends OncePerRequestFilter {
+
+    static final String COOKIE = "heroes-primary";
+
+    private final Duration stickiness;
+
+    public ReplicaStickinessFilter(Duration stickiness) {
+        this.stickiness = stickiness;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+            FilterChain filterChain) throws ServletException, IOException {
+        boolean write = !(request.getMethod().equals("GET") || request.getMethod().equals("HEAD")
+                || request.getMethod().equals("OPTIONS"));
+        if (write) {
+            Cookie cookie = new Cookie(COOKIE, "1");
+            cookie.setMaxAge((int) Math.max(1, stickiness.toSeconds()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            response.addCookie(cookie);
+        }
+        if (!write && WebUtils.getCookie(request, COOKIE) == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        ReplicaRoutingDataSource.holdToPrimary();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingDataSource.release();
+        }
+    }
+}
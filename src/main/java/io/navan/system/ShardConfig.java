@@ -0,0 +1,80 @@
+package io.navan.system;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Shards for the sharded profile, where heroes are spread over several databases by a hash of
+ * their id, see ShardedHeroRepository. Each shard has a pool of its own, publishing the
+ * hikaricp.* metrics as pool shard-0, shard-1 and so on.
+ * heroes.shards.urls lists the shards' databases, which must have the tables in schema.sql.
+ * Without it, heroes.shards.count local H2 databases are made and given those tables.
+ */
+@Configuration
+@Profile("sharded")
+public class ShardConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardConfig.class);
+
+    @Value("${heroes.shards.count:4}")
+    private int count;
+
+    @Value("${heroes.shards.urls:}")
+    private String[] urls;
+
+    @Value("${spring.datasource.username:sa}")
+    private String username;
+
+    @Value("${spring.datasource.password:}")
+    private String password;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int maximumPoolSize;
+
+    @Bean(destroyMethod = "close")
+    public Shards shards(ObjectProvider<MeterRegistry> meterRegistry) {
+        boolean local = urls.length == 0;
+        int shards = local ? count : urls.length;
+        String name = UUID.randomUUID().toString();
+        List<HikariDataSource> dataSources = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(local ? "jdbc:h2:mem:shard-" + shard + "-" + name + ";DB_CLOSE_DELAY=-1"
+                            : urls[shard])
+                    .username(username)
+                    .password(password)
+                    .build();
+            dataSource.setPoolName("shard-" + shard);
+            dataSource.setMaximumPoolSize(maximumPoolSize);
+            meterRegistry.ifAvailable(dataSource::setMetricRegistry);
+            if (local) {
+                new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+            }
+            dataSources.add(dataSource);
+        }
+        LOG.info("Heroes are sharded over {} {} databases", shards, local ? "local" : "configured");
+        // One thread per shard, so a scatter runs on every shard at once.
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("shard-");
+        threads.setDaemon(true);
+        return new Shards(dataSources, Executors.newFixedThreadPool(shards, threads));
+    }
+}
@@ -0,0 +1,104 @@
+package io.navan.system;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Databases that each hold the heroes whose ids hash to them, see ShardConfig. Queries that
+ * cannot be sent to one shard by id are run on all of them at once and their rows put together.
+ */
+public class Shards implements AutoCloseable {
+
+    private final List<HikariDataSource> dataSources;
+    private final List<NamedParameterJdbcTemplate> templates = new ArrayList<>();
+    private final ExecutorService executor;
+
+    public Shards(List<HikariDataSource> dataSources, ExecutorService executor) {
+        this.dataSources = dataSources;
+        this.executor = executor;
+        for (HikariDataSource dataSource : dataSources) {
+            templates.add(new NamedParameterJdbcTemplate(dataSource));
+        }
+    }
+
+    public int count() {
+        return templates.size();
+    }
+
+    /**
+     * Ids are handed out in runs of consecutive numbers, so they are mixed (the MurmurHash3
+     * finalizer) rather than taken modulo the shard count as they are.
+     *
+     * @return the shard holding the hero with the id
+     */
+    public int shardOf(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) count());
+    }
+
+    public NamedParameterJdbcTemplate shard(int shard) {
+        return templates.get(shard);
+    }
+
+    public NamedParameterJdbcTemplate shardFor(long id) {
+        return shard(shardOf(id));
+    }
+
+    /**
+     * @return the items by the shard their ids hash to, shards without any left out
+     */
+    public <T> Map<Integer, List<T>> byShard(Collection<T> items, ToLongFunction<T> id) {
+        Map<Integer, List<T>> byShard = new TreeMap<>();
+        for (T item : items) {
+            byShard.computeIfAbsent(shardOf(id.applyAsLong(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return byShard;
+    }
+
+    /**
+     * Run a query on every shard in parallel.
+     *
+     * @return the rows of every shard, in shard order
+     */
+    public <T> List<T> scatter(Function<NamedParameterJdbcTemplate, List<T>> query) {
+        List<CompletableFuture<List<T>>> results = new ArrayList<>(count());
+        for (NamedParameterJdbcTemplate template : templates) {
+            results.add(CompletableFuture.supplyAsync(() -> query.apply(template), executor));
+        }
+        List<T> rows = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> result : results) {
+                rows.addAll(result.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        dataSources.forEach(HikariDataSource::close);
+    }
+}
@@ -0,0 +1,120 @@
+package io.navan.system;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces concurrent identical reads: the first caller for a key makes the call, on its own
+ * thread, and callers arriving with the same key while it is in flight wait for its result
+ * rather than making the call again. Nothing is kept once the call returns.
+ * A caller only joins a call that started after every write it could have seen finish, as
+ * told by WriteTracker, so a shared result is never older than the caller's own would have
+ * been. A caller that has waited the timeout stops waiting and makes the call itself.
+ * Calls are counted in heroes.single-flight, tagged with the name and whether the caller led,
+ * was coalesced into another call, or timed out waiting.
+ *
+ * @param <K> The key, equal for calls that would return the same result
+ * @param <V> The result
+ */
+public class SingleFlight<K, V> {
+
+    public static final String CALLS = "heroes.single-flight";
+
+    private final WriteTracker writes;
+    private final Duration timeout;
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final Counter led;
+    private final Counter coalesced;
+    private final Counter timedOut;
+
+    private static final class Flight<V> {
+        final long writesStarted;
+        final boolean shareable;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Flight(long writesStarted, boolean shareable) {
+            this.writesStarted = writesStarted;
+            this.shareable = shareable;
+        }
+    }
+
+    public SingleFlight(String name, WriteTracker writes, Duration timeout, MeterRegistry meterRegistry) {
+        this.writes = writes;
+        this.timeout = timeout;
+        this.led = counter(meterRegistry, name, "led");
+        this.coalesced = counter(meterRegistry, name, "coalesced");
+        this.timedOut = counter(meterRegistry, name, "timeout");
+    }
+
+    /**
+     * @param key The key of the call
+     * @param call Makes the call
+     * @return the result of the call, made by this caller or one in flight
+     */
+    public V call(K key, Supplier<V> call) {
+        long started = writes.started();
+        Flight<V> flight = flights.get(key);
+        if (flight != null && flight.shareable && flight.writesStarted == started) {
+            return await(key, flight, call);
+        }
+        // Written before the call reads anything, so a write in progress or started since
+        // keeps later callers out of it.
+        long finished = writes.finished();
+        started = writes.started();
+        Flight<V> leading = new Flight<>(started, started == finished);
+        flight = flights.compute(key, (k, current) ->
+                current != null && current.shareable && current.writesStarted == leading.writesStarted
+                        ? current : leading);
+        if (flight != leading) {
+            return await(key, flight, call);
+        }
+        led.increment();
+        try {
+            V result = call.get();
+            leading.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            leading.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, leading);
+        }
+    }
+
+    private V await(K key, Flight<V> flight, Supplier<V> call) {
+        try {
+            V result = flight.result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            coalesced.increment();
+            return result;
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            flights.remove(key, flight);
+            return call.get();
+        } catch (ExecutionException e) {
+            coalesced.increment();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for " + key, e);
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String name, String outcome) {
+        return Counter.builder(CALLS)
+                .description("Reads made, or coalesced into one already in flight")
+                .tag("name", name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,19 @@
+package io.navan.system;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Counting of write requests, so that reads can be coalesced with SingleFlight without ever
+ * sharing a result from before a write, see HeroReads.
+ */
+@Configuration
+public class SingleFlightConfig {
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public WriteTracker writeTracker() {
+        return new WriteTracker();
+    }
+}
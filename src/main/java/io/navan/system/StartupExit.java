@@ -0,0 +1,33 @@
+package io.navan.system;
+
+import java.lang.management.ManagementFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ends the application as soon as it is ready, when heroes.startup.exit is true. For runs that
+ * only need the application to start: writing the API document, and the training run that
+ * records the class-data sharing archive, see the apiDocs and appCds tasks in build.gradle.
+ */
+@Component
+@ConditionalOnProperty(name = "heroes.startup.exit", havingValue = "true")
+public class StartupExit {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupExit.class);
+
+    @EventListener
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void exit(ApplicationReadyEvent event) {
+        LOG.info("Ready {}ms after the JVM started, exiting as heroes.startup.exit is set",
+                ManagementFactory.getRuntimeMXBean().getUptime());
+        System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+}
@@ -0,0 +1,52 @@
+package io.navan.system;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The Swagger document and the endpoints swagger-ui.html reads it through, for the fast
+ * profile, where springfox is left out. The document is api-docs.json, written by the build
+ * with ApiDocsWriter, so it is as springfox would have served it.
+ */
+@RestController
+@Profile("fast")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class StaticApiDocsController {
+
+    static final String API_DOCS = "/v2/api-docs";
+
+    private final Resource apiDocs = new ClassPathResource("api-docs.json");
+
+    /**
+     * @return the document, 404 if the build did not write one
+     */
+    @GetMapping(value = API_DOCS, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Resource> apiDocs() {
+        if (!apiDocs.exists()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(apiDocs);
+    }
+
+    @GetMapping(value = "/swagger-resources", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Map<String, String>> swaggerResources() {
+        return List.of(Map.of("name", "default", "url", API_DOCS, "location", API_DOCS,
+                "swaggerVersion", "2.0"));
+    }
+
+    // swagger-ui.html's defaults are the ones wanted.
+    @GetMapping(value = { "/swagger-resources/configuration/ui", "/swagger-resources/configuration/security" },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> swaggerConfiguration() {
+        return Map.of();
+    }
+}
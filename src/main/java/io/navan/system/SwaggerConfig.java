@@ -1,8 +1,13 @@
 package io.navan.system;
 
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.web.bind.annotation.RestController;
 
 import springfox.documentation.builders.ApiInfoBuilder;
@@ -10,10 +15,19 @@ import springfox.documentation.builders.PathSelectors;
 import springfox.documentation.builders.RequestHandlerSelectors;
 import springfox.documentation.service.ApiInfo;
 import springfox.documentation.spi.DocumentationType;
+import springfox.documentation.spring.web.DocumentationCache;
+import springfox.documentation.spring.web.json.JsonSerializer;
 import springfox.documentation.spring.web.plugins.Docket;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
+import springfox.documentation.swagger2.mappers.ServiceModelToSwagger2Mapper;
 
+/**
+ * Springfox, which scans the controllers for the Swagger document as the application starts.
+ * The fast profile leaves it out and serves the document written at build time instead, see
+ * ApiDocsWriter.
+ */
 @Configuration
+@Profile("!fast")
 @EnableSwagger2
 @ComponentScan("heroes")
 public class SwaggerConfig {
@@ -27,7 +41,14 @@ public class SwaggerConfig {
                 .build()
                 .apiInfo(apiInfo());
     }
-    
+
+    @Bean
+    @ConditionalOnProperty("heroes.api-docs.output")
+    ApiDocsWriter apiDocsWriter(@Value("${heroes.api-docs.output}") Path output,
+            DocumentationCache documentationCache, ServiceModelToSwagger2Mapper mapper,
+            JsonSerializer jsonSerializer) {
+        return new ApiDocsWriter(output, documentationCache, mapper, jsonSerializer);
+    }
 
     private ApiInfo apiInfo() {
         String description = "Angular Tour of Heroes Backend implemented using Spring Boot technologies.";
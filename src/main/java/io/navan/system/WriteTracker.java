@@ -0,0 +1,71 @@
+package io.navan.system;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Counts the requests that write, as they start and as they finish, for SingleFlight to tell
+ * whether a read in flight could have missed a write, and for ReplicaCacheGuard to tell whether
+ * the replica could still be missing one. Any request other than GET, HEAD and
+ * OPTIONS counts as a write, as for ReplicaStickinessFilter. Writes made around the API are
+ * not counted.
+ * Finishing is counted after the response may already have been sent, which only makes reads
+ * slower to be shared again, never shared when they should not be.
+ */
+public class WriteTracker extends OncePerRequestFilter {
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private volatile long lastFinished;
+    private volatile boolean anyFinished;
+
+    /**
+     * @return the number of writes started
+     */
+    public long started() {
+        return started.get();
+    }
+
+    /**
+     * @return the number of writes finished, equal to started when none is in progress
+     */
+    public long finished() {
+        return finished.get();
+    }
+
+    /**
+     * @return true if no write is in progress and none has finished within the time
+     */
+    public boolean quietFor(Duration time) {
+        if (started.get() != finished.get()) {
+            return false;
+        }
+        return !anyFinished || System.nanoTime() - lastFinished >= time.toNanos();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+            FilterChain filterChain) throws ServletException, IOException {
+        if (request.getMethod().equals("GET") || request.getMethod().equals("HEAD")
+                || request.getMethod().equals("OPTIONS")) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        started.incrementAndGet();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            lastFinished = System.nanoTime();
+            anyFinished = true;
+            finished.incrementAndGet();
+        }
+    }
+}
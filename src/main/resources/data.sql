@@ -1,6 +1,4 @@
-create table hero
-	(id identity primary key, name varchar(20));
-alter table hero add constraint ak_hero unique (name);
+-- Heroes to start with, see schema.sql for the tables they go in.
 
 insert into hero(name) values('Ms Nice');
 insert into hero(name) values('Nurco');
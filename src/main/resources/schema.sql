@@ -0,0 +1,38 @@
+-- Hibernate takes ids 50 at a time from hero_seq (pooled-lo), see Hero.
+-- Rows inserted without an id take a whole block of their own.
+create sequence hero_seq start with 1 increment by 50;
+create table hero
+	(id bigint default next value for hero_seq primary key, name varchar(20),
+	version bigint default 0 not null);
+alter table hero add constraint ak_hero unique (name);
+
+-- Trigram index on lower(hero.name) so that substring searches only look at candidate ids.
+-- hero_trigram_count holds how many heroes have each trigram, so a search can start from its
+-- rarest one. Both are maintained by HeroTrigramTrigger on every insert, update and delete of hero.
+create table hero_trigram
+	(gram varchar(3) not null, hero_id bigint not null, primary key (gram, hero_id));
+create index ix_hero_trigram_hero on hero_trigram(hero_id);
+create table hero_trigram_count
+	(gram varchar(3) primary key, heroes bigint not null);
+create trigger hero_trigram_index after insert, update, delete on hero for each row
+	call "io.navan.heroesbackend.HeroTrigramTrigger";
+
+-- Count of changes to hero rows, the basis of the hero list's ETag: the sum of changes over
+-- all rows. Maintained by HeroChangeCounterTrigger, each session counting in the row of its
+-- session id modulo 32, so concurrent writers don't wait on each other's counts.
+create table hero_change_counter
+	(id int primary key, changes bigint not null);
+insert into hero_change_counter(id, changes) select x, 0 from system_range(0, 31);
+create trigger hero_change_count after insert, update, delete on hero for each row
+	call "io.navan.heroesbackend.HeroChangeCounterTrigger";
+
+-- Tells the application's in-memory views of hero, such as HeroNames, of every change to it,
+-- and of every change rolled back, see HeroRowTrigger.
+create trigger hero_row_listeners after insert, update, delete, rollback on hero for each row
+	call "io.navan.heroesbackend.HeroRowTrigger";
+
+-- The sharded profile's directory of which id each hero's name belongs to, whose primary key
+-- keeps names unique across the shards, see ShardedHeroRepository. Unused otherwise.
+create table hero_directory
+	(id bigint primary key, name varchar(20));
+alter table hero_directory add constraint ak_hero_directory unique (name);
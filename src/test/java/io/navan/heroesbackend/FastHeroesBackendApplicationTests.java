@@ -0,0 +1,57 @@
+package io.navan.heroesbackend;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * The fast profile serves the same API with lazily created beans, and the Swagger document
+ * written by the build in place of springfox's.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({ "test", "fast" })
+public class FastHeroesBackendApplicationTests {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @BeforeEach
+    public void initTests() {
+        jdbcTemplate.execute("delete from hero; insert into Hero(name) values ('Superman');");
+    }
+
+    @Test
+    public void shouldGetSuperheroes() throws Exception {
+        mvc.perform(get("/heroes").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Superman")));
+    }
+
+    @Test
+    public void shouldServeApiDocsWrittenAtBuildTime() throws Exception {
+        mvc.perform(get("/v2/api-docs").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.swagger", is("2.0")))
+                .andExpect(jsonPath("$.paths['/heroes'].get.summary", is("Get all heroes.")));
+        mvc.perform(get("/swagger-resources").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].url", is("/v2/api-docs")));
+    }
+}
@@ -0,0 +1,175 @@
+package io.navan.heroesbackend;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * createHero with heroes.group-commit.enabled, waiting long enough for concurrent creates to
+ * share a transaction.
+ */
+@SpringBootTest(properties = { "heroes.group-commit.enabled=true", "heroes.group-commit.max-delay=20ms" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class GroupCommitHeroesBackendApplicationTests {
+
+    private static final String BASE_URL = "/heroes/";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HeroGroupCommit heroGroupCommit;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeEach
+    public void initTests() {
+        jdbcTemplate.execute("delete from hero; insert into Hero(name) values ('Superman')");
+    }
+
+    @Test
+    public void shouldCreateSuperhero() throws Exception {
+        MockHttpServletResponse response = invokeCreateHero(new Hero("Company Man"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.name", is("Company Man")))
+                .andReturn().getResponse();
+        Hero hero = mapper.readValue(response.getContentAsByteArray(), Hero.class);
+        assertThat(response.getHeader("Location")).endsWith("/" + hero.getId());
+
+        invokeCreateHero(new Hero("Superman"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+        invokeCreateHero(new Hero("A name much too long for a hero"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].property", is("name")));
+    }
+
+    /**
+     * Concurrent creates, some for the same names, should each get their own outcome: one
+     * create per name wins, with its own id, and the rest are told the name exists.
+     */
+    @Test
+    public void shouldCreateConcurrentSuperheroesTogether() throws Exception {
+        double batchesBefore = meterRegistry.get(HeroGroupCommit.BATCH).summary().count();
+        int clients = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        List<MockHttpServletResponse> responses = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Hero hero = new Hero(i % 4 == 0 ? "Twin " + i / 8 : "Hero " + i);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    MockHttpServletResponse response = invokeCreateHero(hero).andReturn().getResponse();
+                    synchronized (responses) {
+                        responses.add(response);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> ids = new HashSet<>();
+        int created = 0;
+        for (MockHttpServletResponse response : responses) {
+            if (response.getStatus() == 201) {
+                Hero hero = mapper.readValue(response.getContentAsByteArray(), Hero.class);
+                assertThat(response.getHeader("Location")).endsWith("/" + hero.getId());
+                assertThat(ids.add(hero.getId())).isTrue();
+                created++;
+            } else {
+                assertThat(response.getStatus()).isEqualTo(400);
+                assertThat(response.getContentAsString()).contains("Already Exists");
+            }
+        }
+        // 24 distinct names and 4 twin names, each taken twice
+        assertThat(created).isEqualTo(28);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from hero", Integer.class)).isEqualTo(29);
+        assertThat(meterRegistry.get(HeroGroupCommit.BATCH).summary().count() - batchesBefore)
+                .isLessThan(clients);
+    }
+
+    /**
+     * A create whose batch cannot commit should fail in good time, not hold its request thread
+     * until the batch does.
+     */
+    @Test
+    public void shouldTimeOutStalledSuperheroCreate() throws Exception {
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the name's unique key, without HeroNames hearing of it, so the batch waits on it
+        Thread holder = new Thread(() -> HeroRowTrigger.quietly(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    jdbcTemplate.execute("insert into Hero(name) values ('Stuck')");
+                    inserted.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    status.setRollbackOnly();
+                })));
+        holder.start();
+        inserted.await();
+        Duration timeout = heroGroupCommit.timeout;
+        heroGroupCommit.timeout = Duration.ofMillis(200);
+        try {
+            invokeCreateHero(new Hero("Stuck"))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(jsonPath("$.errors[0].message", is("Timed out")));
+        } finally {
+            heroGroupCommit.timeout = timeout;
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    private ResultActions invokeCreateHero(Hero hero) throws Exception {
+        return mvc.perform(post(BASE_URL).content(mapper.writeValueAsBytes(hero))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON));
+    }
+}
@@ -1,37 +1,97 @@
 package io.navan.heroesbackend;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.navan.system.CacheConfig;
+import io.navan.system.HibernateCacheConfig;
 import io.navan.system.ValidationError;
 
-@SpringBootTest
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @AutoConfigureMockMvc
+@AutoConfigureMetrics
 @ActiveProfiles("test")
 public class HeroesBackendApplicationTests {
 
@@ -45,6 +105,27 @@ public class HeroesBackendApplicationTests {
     @Autowired
     private MockMvc mvc;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private HeroRepository heroRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HeroChangeFeed heroChangeFeed;
+
+    @LocalServerPort
+    private int port;
+
     // Used for converting heroes to/from JSON
     private ObjectMapper mapper = new ObjectMapper();
 
@@ -176,6 +257,143 @@ public class HeroesBackendApplicationTests {
                 .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
     }
 
+    /**
+     * Names are taken exactly as given, and are let go by renames and deletes. A name found
+     * taken is rejected before the insert, with the same errors as the unique constraint gives.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldCheckSuperheroNameExists() throws Exception {
+        MvcResult results = invokeCreateHero(toJson(new Hero("Company Man")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Hero hero = fromJsonResult(results, Hero.class);
+        invokeHeroExists("Company Man").andExpect(status().isOk()).andExpect(content().string("true"));
+        invokeHeroExists("company man").andExpect(status().isOk()).andExpect(content().string("false"));
+
+        invokeUpdateHero(hero.getId(), toJson(new Hero("Salary Man"))).andExpect(status().isNoContent());
+        invokeHeroExists("Company Man").andExpect(content().string("false"));
+        invokeHeroExists("Salary Man").andExpect(content().string("true"));
+        invokeCreateHero(toJson(new Hero("Salary Man")))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message", is("Hero name already exists")))
+                .andExpect(jsonPath("$.errors", hasSize(1)))
+                .andExpect(jsonPath("$.errors[0].entity", is(Hero.class.getName())))
+                .andExpect(jsonPath("$.errors[0].property", is("name")))
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+        // Renaming a hero to its own name is not a duplicate
+        invokeUpdateHero(hero.getId(), toJson(new Hero("Salary Man"))).andExpect(status().isNoContent());
+
+        invokeDeleteHero(hero.getId()).andExpect(status().isNoContent());
+        invokeHeroExists("Salary Man").andExpect(content().string("false"));
+        invokeCreateHero(toJson(new Hero("Salary Man"))).andExpect(status().isCreated());
+    }
+
+    /**
+     * A taken name should be rejected from the name index, without a statement being run,
+     * however many times it is tried.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldRejectTakenSuperheroNameWithoutQuerying() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+        long statements = statistics.getPrepareStatementCount();
+        for (int i = 0; i < 3; i++) {
+            invokeCreateHero(toJson(new Hero("Company Man")))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+            invokeHeroExists("Company Man").andExpect(content().string("true"));
+        }
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(statements);
+    }
+
+    /**
+     * The name index should follow the hero table however it is written, and forget writes
+     * that are rolled back.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldKeepSuperheroNamesInStepWithHeroTable() throws Exception {
+        jdbcTemplate.execute("insert into Hero(name) values ('Cat Lady')");
+        invokeHeroExists("Cat Lady").andExpect(content().string("true"));
+        invokeCreateHero(toJson(new Hero("Cat Lady")))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+
+        jdbcTemplate.execute("update Hero set name = 'Dog Lady' where name = 'Cat Lady'");
+        invokeHeroExists("Cat Lady").andExpect(content().string("false"));
+        invokeHeroExists("Dog Lady").andExpect(content().string("true"));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.execute("delete from Hero where name = 'Dog Lady'");
+            jdbcTemplate.execute("insert into Hero(name) values ('Cat Lady')");
+            status.setRollbackOnly();
+        });
+        invokeHeroExists("Dog Lady").andExpect(content().string("true"));
+        invokeHeroExists("Cat Lady").andExpect(content().string("false"));
+
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+        jdbcTemplate.execute("delete from Hero where name in ('Dog Lady', 'Company Man')");
+        invokeHeroExists("Dog Lady").andExpect(content().string("false"));
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+    }
+
+    @Test
+    public void shouldSuggestSuperheroes() throws Exception {
+        Hero one = fromJsonResult(invokeCreateHero(toJson(new Hero("Quasar One")))
+                .andExpect(status().isCreated()).andReturn(), Hero.class);
+        Hero two = fromJsonResult(invokeCreateHero(toJson(new Hero("Quasar Two")))
+                .andExpect(status().isCreated()).andReturn(), Hero.class);
+        invokeCreateHero(toJson(new Hero("quasimodo"))).andExpect(status().isCreated());
+
+        invokeSuggestHeroes("QUAS", null, false)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Quasar One", "Quasar Two", "quasimodo")))
+                .andExpect(jsonPath("$[0].id", is(one.getId().intValue())));
+        invokeSuggestHeroes("quas", 2, false)
+                .andExpect(jsonPath("$[*].name", contains("Quasar One", "Quasar Two")));
+        invokeSuggestHeroes("quasar t", null, false)
+                .andExpect(jsonPath("$[*].name", contains("Quasar Two")));
+
+        // One character dropped, then one changed
+        invokeSuggestHeroes("qasar", null, false).andExpect(jsonPath("$", hasSize(0)));
+        invokeSuggestHeroes("qasar", null, true)
+                .andExpect(jsonPath("$[*].name", contains("Quasar One", "Quasar Two")));
+        invokeSuggestHeroes("quasar tvo", null, true)
+                .andExpect(jsonPath("$[*].name", contains("Quasar Two")));
+
+        invokeUpdateHero(two.getId(), toJson(new Hero("Nebula Two"))).andExpect(status().isNoContent());
+        invokeDeleteHero(one.getId()).andExpect(status().isNoContent());
+        invokeSuggestHeroes("quas", null, false)
+                .andExpect(jsonPath("$[*].name", contains("quasimodo")));
+        invokeSuggestHeroes("nebula", null, false)
+                .andExpect(jsonPath("$[*].name", contains("Nebula Two")));
+    }
+
+    @Test
+    public void shouldKeepSuggestionsInStepWithHeroTable() throws Exception {
+        jdbcTemplate.execute("insert into Hero(name) values ('Quasar One')");
+        jdbcTemplate.execute("update Hero set name = 'Quasar Two' where name = 'Quasar One'");
+        jdbcTemplate.execute("update Hero set name = 'Quasar Three' where name = 'Quasar Two'");
+        invokeSuggestHeroes("quasar", null, false)
+                .andExpect(jsonPath("$[*].name", contains("Quasar Three")));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.execute("update Hero set name = 'Nebula' where name = 'Quasar Three'");
+            status.setRollbackOnly();
+        });
+        invokeSuggestHeroes("nebula", null, false).andExpect(jsonPath("$", hasSize(0)));
+        invokeSuggestHeroes("quasar", null, false)
+                .andExpect(jsonPath("$[*].name", contains("Quasar Three")));
+
+        jdbcTemplate.execute("delete from Hero where name = 'Quasar Three'");
+        invokeSuggestHeroes("quasar", null, false).andExpect(jsonPath("$", hasSize(0)));
+    }
+
     @Test
     public void shouldBadRequestCreateSuperheroWithBadName() throws Exception {
         LOG.debug("CreateMissingName");
@@ -287,6 +505,49 @@ public class HeroesBackendApplicationTests {
                 .andExpect(status().isNotFound());
     }
 
+    /**
+     * A patch should change only the fields it has, validate them as an update does, and move
+     * the hero on to a new ETag.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldPatchSuperhero() throws Exception {
+        MvcResult results = invokeCreateHero(toJson(new Hero("Company Man")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Hero hero = fromJsonResult(results, Hero.class);
+        String heroEtag = invokeGetHero(hero.getId()).andReturn().getResponse().getHeader("ETag");
+
+        invokePatchHero(hero.getId(), "{}").andExpect(status().isNoContent());
+        invokeGetHero(hero.getId())
+                .andExpect(header().string("ETag", heroEtag))
+                .andExpect(jsonPath("$.name", is("Company Man")));
+
+        mvc.perform(patch(BASE_URL + hero.getId()).header("If-Match", heroEtag)
+                .content("{\"name\":\"Salary Man\"}")
+                .contentType("application/merge-patch+json"))
+                .andExpect(status().isNoContent());
+        invokeGetHero(hero.getId())
+                .andExpect(header().string("ETag", not(heroEtag)))
+                .andExpect(jsonPath("$.name", is("Salary Man")));
+        mvc.perform(patch(BASE_URL + hero.getId()).header("If-Match", heroEtag)
+                .content("{\"name\":\"Wage Man\"}")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+
+        results = invokePatchHero(hero.getId(), "{\"name\":null}")
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        checkInvalidNameErrorResponse(results, "name is required");
+        invokePatchHero(hero.getId(), "{\"name\":\"Superman\"}")
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+        invokePatchHero(hero.getId() + 1000, "{\"name\":\"Wage Man\"}")
+                .andExpect(status().isNotFound());
+        invokePatchHero(hero.getId() + 1000, "{}").andExpect(status().isNotFound());
+    }
+
     /**
      * Delete a superhero must well and truly delete it.
      * 
@@ -365,6 +626,619 @@ public class HeroesBackendApplicationTests {
                 .andExpect(jsonPath("$", hasSize(0)));
     }
 
+    /**
+     * Searches the trigram index cannot narrow (too short, or holding LIKE wildcards) should
+     * match exactly as before, and renamed heroes should be found under their new name only.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldSearchSuperheroesWithoutTrigrams() throws Exception {
+        MvcResult results = invokeCreateHero(toJson(new Hero("Cat Girl")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Hero hero = fromJsonResult(results, Hero.class);
+
+        invokeSearchHeroes("AT")
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("Cat Girl")));
+        invokeSearchHeroes("s_p")
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("Superman")));
+        invokeSearchHeroes("CAT G")
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("Cat Girl")));
+
+        invokeUpdateHero(hero.getId(), toJson(new Hero("Dog Girl"))).andExpect(status().isNoContent());
+        invokeSearchHeroes("cat g").andExpect(jsonPath("$", hasSize(0)));
+        invokeSearchHeroes("dog g").andExpect(jsonPath("$[*].name", containsInAnyOrder("Dog Girl")));
+    }
+
+    /**
+     * Repeated reads of a hero should come from the cache, and a rejected update must leave
+     * the cached hero as it was.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldCacheSuperhero() throws Exception {
+        MvcResult results = invokeCreateHero(toJson(new Hero("Company Man")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Hero hero = fromJsonResult(results, Hero.class);
+        CaffeineCache heroes = (CaffeineCache) ((TransactionAwareCacheDecorator) cacheManager
+                .getCache(CacheConfig.HEROES)).getTargetCache();
+        long hits = heroes.getNativeCache().stats().hitCount();
+
+        invokeGetHero(hero.getId()).andExpect(jsonPath("$.name", is("Company Man")));
+        invokeGetHero(hero.getId()).andExpect(jsonPath("$.name", is("Company Man")));
+        assertThat(heroes.getNativeCache().stats().hitCount()).isEqualTo(hits + 2);
+
+        invokeUpdateHero(hero.getId(), toJson(new Hero("Superman")))
+                .andExpect(status().isBadRequest());
+        invokeGetHero(hero.getId()).andExpect(jsonPath("$.name", is("Company Man")));
+    }
+
+    /**
+     * Heroes and searches missing from the repository caches should come from Hibernate's
+     * second-level and query caches, which updates and deletes must keep up to date.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldInvalidateSecondLevelCache() throws Exception {
+        MvcResult results = invokeCreateHero(toJson(new Hero("Company Man")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Hero hero = fromJsonResult(results, Hero.class);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        CacheRegionStatistics heroRegion =
+                statistics.getDomainDataRegionStatistics(HibernateCacheConfig.HERO_REGION);
+
+        long hits = heroRegion.getHitCount();
+        assertThat(findUncached(hero.getId())).map(Hero::getName).contains("Company Man");
+        assertThat(heroRegion.getHitCount()).isEqualTo(hits + 1);
+
+        long queryHits = statistics.getQueryCacheHitCount();
+        assertThat(heroRepository.scanByName("pany")).extracting(Hero::getName).containsExactly("Company Man");
+        assertThat(heroRepository.scanByName("pany")).extracting(Hero::getName).containsExactly("Company Man");
+        assertThat(heroRepository.findByTrigram("pany", "pan")).extracting(Hero::getName).containsExactly("Company Man");
+        assertThat(heroRepository.findByTrigram("pany", "pan")).extracting(Hero::getName).containsExactly("Company Man");
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(queryHits + 2);
+
+        // Cached results are ids, so a stale one would still find the renamed hero.
+        invokeUpdateHero(hero.getId(), toJson(new Hero("Dog Girl"))).andExpect(status().isNoContent());
+        assertThat(findUncached(hero.getId())).map(Hero::getName).contains("Dog Girl");
+        assertThat(heroRepository.scanByName("pany")).isEmpty();
+        assertThat(heroRepository.findByTrigram("pany", "pan")).isEmpty();
+        assertThat(heroRepository.findByTrigram("dog", "dog")).extracting(Hero::getName).containsExactly("Dog Girl");
+
+        invokeDeleteHero(hero.getId()).andExpect(status().isNoContent());
+        assertThat(findUncached(hero.getId())).isEmpty();
+        assertThat(heroRepository.scanByName("dog")).isEmpty();
+        assertThat(heroRepository.findByTrigram("dog", "dog")).isEmpty();
+    }
+
+    /**
+     * Requests, repository calls, serialization, errors and the connection pool should all be
+     * on the Prometheus scrape.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldPublishSuperheroMetrics() throws Exception {
+        Hero hero = getAllHeroes()[0];
+        invokeGetHero(hero.getId()).andExpect(status().isOk());
+        invokeGetHero(hero.getId() + 1).andExpect(status().isNotFound());
+        mvc.perform(get(BASE_URL + hero.getId()).accept(HeroController.CBOR)).andExpect(status().isOk());
+        mvc.perform(get(BASE_URL + hero.getId()).accept(HeroController.SMILE)).andExpect(status().isOk());
+        invokeAllHeroes().andExpect(status().isOk());
+        invokeExportHeroes(MediaType.APPLICATION_NDJSON);
+
+        String scrape = mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(scrape)
+                .contains("http_server_requests_seconds_bucket{exception=\"None\",method=\"GET\","
+                        + "outcome=\"SUCCESS\",status=\"200\",uri=\"/heroes/{id")
+                .contains("spring_data_repository_invocations_seconds_bucket")
+                .contains("heroes_serialization_seconds_bucket{body=\"converter\",type=\"json\"")
+                .contains("heroes_serialization_seconds_count{body=\"converter\",type=\"cbor\",}")
+                .contains("heroes_serialization_seconds_count{body=\"converter\",type=\"smile\",}")
+                .contains("heroes_serialization_seconds_count{body=\"snapshot\",type=\"json\",}")
+                .contains("heroes_serialization_seconds_count{body=\"stream\",type=\"ndjson\",}")
+                .contains("heroes_errors_total{status=\"404\",}")
+                .contains("hikaricp_connections_active")
+                .contains("hibernate_second_level_cache_requests_total{entityManagerFactory=\"entityManagerFactory\",region=\"hero\",result=\"hit\",}");
+    }
+
+    /**
+     * A hero or hero list fetched again with its ETag should be Not Modified until the heroes
+     * change, and an update with a stale If-Match should fail.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldHonourSuperheroEtags() throws Exception {
+        String listEtag = invokeAllHeroes().andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        mvc.perform(get(BASE_URL).header("If-None-Match", listEtag))
+                .andExpect(status().isNotModified());
+
+        Hero hero = getAllHeroes()[0];
+        String heroEtag = invokeGetHero(hero.getId()).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        mvc.perform(get(BASE_URL + hero.getId()).header("If-None-Match", heroEtag))
+                .andExpect(status().isNotModified());
+
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", heroEtag)
+                .content(toJson(new Hero("Superboy")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", heroEtag)
+                .content(toJson(new Hero("Superduperman")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.errors[0].property", is("version")));
+
+        mvc.perform(get(BASE_URL + hero.getId()).header("If-None-Match", heroEtag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Superboy")));
+        mvc.perform(get(BASE_URL).header("If-None-Match", listEtag))
+                .andExpect(status().isOk());
+    }
+
+    /**
+     * A transaction writing heroes should not hold up another's writes on the change count
+     * behind the list ETag until it ends.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldCountSuperheroChangesConcurrently() throws Exception {
+        String listEtag = invokeAllHeroes().andReturn().getResponse().getHeader("ETag");
+        try (Connection open = jdbcTemplate.getDataSource().getConnection();
+                Connection other = jdbcTemplate.getDataSource().getConnection()) {
+            open.setAutoCommit(false);
+            try (Statement statement = open.createStatement()) {
+                statement.executeUpdate("insert into hero(name) values ('Abc')");
+            }
+            try (Statement statement = other.createStatement()) {
+                statement.executeUpdate("insert into hero(name) values ('Xyz')");
+            }
+            open.rollback();
+        }
+        mvc.perform(get(BASE_URL).header("If-None-Match", listEtag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains("Superman", "Xyz")));
+    }
+
+    /**
+     * A search logged with a name holding quotes, line breaks and other control characters
+     * should stay one line of valid JSON, as Jackson would write it.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldLogSuperheroFilterAsJson() throws Exception {
+        HeroesRequestFilter filter = new HeroesRequestFilter();
+        filter.setName("Super\"man\\\r\nINFO forged\t\b\f\u0000\u001f");
+        filter.setLimit(5);
+        String logged = filter.toString();
+        assertThat(logged).doesNotContain("\n").doesNotContain("\r").doesNotContain("\u0000");
+        assertThat(logged).isEqualTo(mapper.writeValueAsString(filter));
+        assertThat(mapper.readTree(logged).get("name").asText()).isEqualTo(filter.getName());
+    }
+
+    /**
+     * Keyset pages should walk the heroes in id order, linking each full page to the next.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldPageSuperheroes() throws Exception {
+        for (String hero : new String[] { "Supergirl", "Company Man", "Cat Lady" }) {
+            invokeCreateHero(toJson(new Hero(hero)));
+        }
+        String[] byId = Arrays.stream(getAllHeroes())
+                .sorted(Comparator.comparing(Hero::getId))
+                .map(Hero::getName)
+                .toArray(String[]::new);
+
+        MvcResult result = mvc.perform(get(BASE_URL + "?limit=2").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains(byId[0], byId[1])))
+                .andExpect(header().string("Link", containsString("rel=\"next\"")))
+                .andReturn();
+        Hero[] page = fromJsonResult(result, Hero[].class);
+
+        mvc.perform(get(BASE_URL + "?limit=2&after=" + page[1].getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", contains(byId[2], byId[3])));
+        mvc.perform(get(BASE_URL + "?limit=10&after=" + page[1].getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(header().doesNotExist("Link"));
+    }
+
+    /**
+     * Reads should go to the replica pool, except for a client that has just written, which
+     * should read from the primary while it returns the cookie its write set.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldRouteSuperheroReadsToReplica() throws Exception {
+        Cookie wrote = invokeCreateHero(toJson(new Hero("Company Man")))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getCookie("heroes-primary");
+        assertThat(wrote).isNotNull();
+
+        long replica = connections("replica");
+        invokeSearchHeroes("pany").andExpect(jsonPath("$[*].name", contains("Company Man")));
+        assertThat(connections("replica")).isGreaterThan(replica);
+
+        replica = connections("replica");
+        long primary = connections("primary");
+        mvc.perform(get(BASE_URL + "?name=comp").cookie(wrote).accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[*].name", contains("Company Man")));
+        assertThat(connections("replica")).isEqualTo(replica);
+        assertThat(connections("primary")).isGreaterThan(primary);
+    }
+
+    /**
+     * The unfiltered hero list should come from the snapshot, gzipped when accepted, without
+     * querying for heroes until they change, however they are changed.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldServeSuperheroSnapshot() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        byte[] json = invokeAllHeroes().andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        long queries = statistics.getQueryExecutionCount();
+
+        MvcResult results = mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON)
+                .header("Accept-Encoding", "br, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andReturn();
+        byte[] gzipped = results.getResponse().getContentAsByteArray();
+        assertThat(results.getResponse().getContentLength()).isEqualTo(gzipped.length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertThat(in.readAllBytes()).isEqualTo(json);
+        }
+        mvc.perform(get(BASE_URL).header("Accept-Encoding", "gzip;q=0, *"))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(content().bytes(json));
+        assertThat(statistics.getQueryExecutionCount()).isEqualTo(queries);
+
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+        invokeAllHeroes().andExpect(jsonPath("$[*].name", containsInAnyOrder("Superman", "Company Man")));
+        jdbcTemplate.execute("insert into Hero(name) values ('Cat Lady')");
+        invokeAllHeroes().andExpect(jsonPath("$[*].name",
+                containsInAnyOrder("Superman", "Company Man", "Cat Lady")));
+    }
+
+    /**
+     * Heroes and errors should come as CBOR or Smile when asked for, and as JSON otherwise.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldNegotiateBinarySuperheroes() throws Exception {
+        ObjectMapper cbor = new CBORMapper();
+        ObjectMapper smile = new SmileMapper();
+
+        MvcResult results = mvc.perform(post(BASE_URL)
+                .content(smile.writeValueAsBytes(new Hero("Company Man")))
+                .contentType("application/x-jackson-smile")
+                .accept("application/x-jackson-smile"))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType("application/x-jackson-smile"))
+                .andReturn();
+        Hero hero = smile.readValue(results.getResponse().getContentAsByteArray(), Hero.class);
+        assertThat(hero.getName()).isEqualTo("Company Man");
+
+        results = mvc.perform(get(BASE_URL).accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn();
+        assertThat(cbor.readValue(results.getResponse().getContentAsByteArray(), Hero[].class))
+                .extracting(Hero::getName)
+                .containsExactlyInAnyOrder("Superman", "Company Man");
+
+        results = mvc.perform(get(BASE_URL + (hero.getId() + 1000)).accept("application/cbor"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn();
+        ValidationError apiError = cbor.readValue(results.getResponse().getContentAsByteArray(),
+                ValidationError.class);
+        assertThat(apiError.getErrors().get(0).getMessage()).isEqualTo("Hero not found");
+
+        mvc.perform(get(BASE_URL))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+        mvc.perform(get(BASE_URL).accept("application/cbor;q=0.5", "application/json"))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Streaming all heroes should produce the same list as getting them all.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldStreamSuperheroes() throws Exception {
+        invokeCreateHero(toJson(new Hero("Company Man")));
+
+        MvcResult result = mvc.perform(get(BASE_URL + "?stream=true").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("Superman", "Company Man")));
+    }
+
+    /**
+     * Heroes exported as newline delimited JSON or CSV should import back, the names already
+     * taken skipped.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldExportAndImportSuperheroes() throws Exception {
+        Hero hero = fromJsonResult(invokeCreateHero(toJson(new Hero("Co, \"Man\""))).andReturn(), Hero.class);
+
+        String ndjson = invokeExportHeroes(MediaType.APPLICATION_NDJSON)
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(ndjson.split("\n")).hasSize(2)
+                .contains("{\"id\":" + hero.getId() + ",\"name\":\"Co, \\\"Man\\\"\"}");
+        String csv = invokeExportHeroes(MediaType.parseMediaType("text/csv"))
+                .andExpect(content().contentTypeCompatibleWith("text/csv"))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(csv).startsWith("id,name\r\n").contains(hero.getId() + ",\"Co, \"\"Man\"\"\"\r\n");
+
+        invokeDeleteHero(hero.getId());
+        mvc.perform(post(BASE_URL + "import").content(csv).contentType("text/csv"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.read", is(2)))
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.skipped", is(1)));
+        mvc.perform(post(BASE_URL + "import")
+                .content("{\"name\":\"Cat Lady\"}\n{\"name\":\"\"}\n{\"id\":7,\"name\":\"Cat Lady\"}\n")
+                .contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.skipped", is(1)))
+                .andExpect(jsonPath("$.invalid", is(1)));
+        assertThat(getAllHeroes()).extracting(Hero::getName)
+                .containsExactlyInAnyOrder("Superman", "Co, \"Man\"", "Cat Lady");
+    }
+
+    /**
+     * An import should stop at the first name taken with onConflict=fail, and at a row that
+     * cannot be read, keeping the rows before it.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldStopImportingSuperheroes() throws Exception {
+        mvc.perform(post(BASE_URL + "import?onConflict=fail")
+                .content("name\nSupergirl\nSuperman\nCat Lady\n")
+                .contentType("text/csv"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.row", is(2)))
+                .andExpect(jsonPath("$.error.errors[0].message", is("Already Exists")));
+        mvc.perform(post(BASE_URL + "import")
+                .content("{\"name\":\"Batgirl\"}\n[\"Cat Lady\"]\n")
+                .contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.created", is(1)))
+                .andExpect(jsonPath("$.row", is(2)))
+                .andExpect(jsonPath("$.error.errors[0].message", is("Unreadable")));
+        assertThat(getAllHeroes()).extracting(Hero::getName)
+                .containsExactlyInAnyOrder("Superman", "Supergirl", "Batgirl");
+    }
+
+    /**
+     * Imported heroes should be searchable like any other, and an unknown onConflict should be
+     * a bad request, before anything is read.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldImportSearchableSuperheroes() throws Exception {
+        mvc.perform(post(BASE_URL + "import?onConflict=overwrite")
+                .content("name\nCat Lady\n")
+                .contentType("text/csv"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error.errors[0].property", is("onConflict")))
+                .andExpect(jsonPath("$.error.errors[0].message", is("Must be skip or fail")));
+        invokeSearchHeroes("lady").andExpect(jsonPath("$", hasSize(0)));
+
+        mvc.perform(post(BASE_URL + "import?onConflict=SKIP")
+                .content("name\nCat Lady\nCat Girl\nCat Lady\n")
+                .contentType("text/csv"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created", is(2)))
+                .andExpect(jsonPath("$.skipped", is(1)));
+        invokeSearchHeroes("cat ").andExpect(jsonPath("$[*].name", containsInAnyOrder("Cat Lady", "Cat Girl")));
+        invokeSearchHeroes("lady").andExpect(jsonPath("$[*].name", contains("Cat Lady")));
+        invokeHeroExists("Cat Girl").andExpect(content().string("true"));
+    }
+
+    /**
+     * Writes should be pushed to subscribers as server-sent events. A subscriber resuming with
+     * the id of an event is sent only the events after it; one with an id it cannot resume
+     * from is told to reset.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldFollowSuperheroChanges() throws Exception {
+        try (Changes changes = new Changes(null)) {
+            Hero hero = fromJsonResult(invokeCreateHero(toJson(new Hero("Company Man"))).andReturn(), Hero.class);
+            invokeUpdateHero(hero.getId(), toJson(new Hero("Company Woman")));
+            invokeDeleteHero(hero.getId());
+
+            String events = awaitEvent(changes, "deleted");
+            assertThat(events).containsSubsequence(
+                    "event:created\ndata:{\"id\":" + hero.getId() + ",\"name\":\"Company Man\"}",
+                    "event:updated\ndata:{\"id\":" + hero.getId() + ",\"name\":\"Company Woman\"}",
+                    "event:deleted\ndata:{\"id\":" + hero.getId() + "}");
+
+            Matcher created = Pattern.compile("id:(\\S+)\nevent:created").matcher(events);
+            assertThat(created.find()).isTrue();
+            try (Changes resumed = new Changes(created.group(1))) {
+                assertThat(awaitEvent(resumed, "deleted")).contains("event:updated").doesNotContain("event:created");
+            }
+            try (Changes reset = new Changes("0-1")) {
+                assertThat(awaitEvent(reset, "reset")).doesNotContain("event:created");
+            }
+        }
+    }
+
+    /**
+     * Writes to one hero should be published in the order they committed, however late the
+     * first is published, and writes made around the API should be published too.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldPublishSuperheroChangesInCommitOrder() throws Exception {
+        Long id = jdbcTemplate.queryForObject("select id from hero where name = 'Superman'", Long.class);
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch publish = new CountDownLatch(1);
+        try (Changes changes = new Changes(null)) {
+            Thread first = new Thread(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                // Runs after the commit and before the write is published.
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        committed.countDown();
+                        try {
+                            publish.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                jdbcTemplate.update("update hero set name = 'Superboy', version = version + 1 where id = ?", id);
+            }));
+            first.start();
+            assertThat(committed.await(5, TimeUnit.SECONDS)).isTrue();
+            invokeUpdateHero(id, toJson(new Hero("Superwoman"))).andExpect(status().isNoContent());
+            awaitEvent(changes, "updated");
+            publish.countDown();
+            first.join();
+
+            invokeCreateHero(toJson(new Hero("Last Word"))).andExpect(status().isCreated());
+            String events = awaitEvent(changes, "created");
+            assertThat(events).contains("\"name\":\"Superwoman\"").doesNotContain("Superboy");
+        }
+    }
+
+    /**
+     * A subscriber whose socket takes nothing should be disconnected, without holding up
+     * the others.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldDisconnectStalledChangeSubscriber() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/heroes/changes");
+        request.setAsyncSupported(true);
+        ServletOutputStream stalled = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                throw new IllegalStateException("Not ready");
+            }
+        };
+        HttpServletResponse response = new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return stalled;
+            }
+        };
+        Duration maxStall = heroChangeFeed.maxStall;
+        heroChangeFeed.maxStall = Duration.ofMillis(200);
+        try (Changes changes = new Changes(null)) {
+            heroChangeFeed.subscribe(null, request, response);
+            invokeCreateHero(toJson(new Hero("Slow Poke"))).andExpect(status().isCreated());
+            assertThat(awaitEvent(changes, "created")).contains("Slow Poke");
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (request.isAsyncStarted() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(request.isAsyncStarted()).isFalse();
+
+            invokeCreateHero(toJson(new Hero("Quick Draw"))).andExpect(status().isCreated());
+            assertThat(awaitEvent(changes, "created\ndata:\\{\"id\":\\d+,\"name\":\"Quick Draw")).isNotEmpty();
+        } finally {
+            heroChangeFeed.maxStall = maxStall;
+        }
+    }
+
+    /**
+     * Batch create, update and delete should report on every item, failing only the bad ones.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void shouldBatchSuperheroes() throws Exception {
+        MvcResult results = mvc.perform(post(BASE_URL + "batch")
+                .content(toJson(new Hero[] { new Hero("Supergirl"), new Hero(""),
+                        new Hero("Superman"), new Hero("Cat Lady"), new Hero("Cat Lady") }))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].httpStatus",
+                        contains("CREATED", "BAD_REQUEST", "BAD_REQUEST", "CREATED", "BAD_REQUEST")))
+                .andExpect(jsonPath("$[1].error.errors[0].property", is("name")))
+                .andExpect(jsonPath("$[2].error.errors[0].message", is("Already Exists")))
+                .andExpect(jsonPath("$[4].error.errors[0].message", is("Already Exists")))
+                .andReturn();
+        HeroBatchResult[] created = fromJsonResult(results, HeroBatchResult[].class);
+        Long supergirlId = created[0].getHero().getId();
+        Long catLadyId = created[3].getHero().getId();
+        assertThat(getAllHeroes().length).isEqualTo(3);
+
+        Hero supergirl = new Hero("Superwoman");
+        supergirl.setId(supergirlId);
+        Hero catLady = new Hero("Superman");
+        catLady.setId(catLadyId);
+        Hero missing = new Hero("Nobody");
+        missing.setId(catLadyId + 1);
+        mvc.perform(put(BASE_URL + "batch")
+                .content(toJson(new Hero[] { supergirl, catLady, missing }))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].httpStatus", contains("NO_CONTENT", "BAD_REQUEST", "NOT_FOUND")));
+        invokeGetHero(supergirlId).andExpect(jsonPath("$.name", is("Superwoman")));
+        invokeGetHero(catLadyId).andExpect(jsonPath("$.name", is("Cat Lady")));
+
+        mvc.perform(delete(BASE_URL + "batch")
+                .content(toJson(new Long[] { supergirlId, catLadyId + 1, catLadyId }))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].httpStatus", contains("NO_CONTENT", "NOT_FOUND", "NO_CONTENT")));
+        invokeGetHero(supergirlId).andExpect(status().isNotFound());
+        assertThat(getAllHeroes().length).isEqualTo(1);
+    }
+
     /*
      * Private utility functions used by tests
      */
@@ -393,7 +1267,7 @@ public class HeroesBackendApplicationTests {
      * @return byte array with JSON representation
      * @throws Exception
      */
-    private byte[] toJson(Object object) throws Exception {
+    byte[] toJson(Object object) throws Exception {
         return this.mapper.writeValueAsString(object).getBytes();
     }
 
@@ -412,6 +1286,14 @@ public class HeroesBackendApplicationTests {
      * Hit the endpoints...
      */
 
+    /**
+     * Find a hero by id past the heroes cache, so from Hibernate.
+     */
+    private Optional<Hero> findUncached(Long id) {
+        cacheManager.getCache(CacheConfig.HEROES).clear();
+        return heroRepository.findById(id);
+    }
+
     private ResultActions invokeAllHeroes() throws Exception {
         return mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON));
     }
@@ -420,21 +1302,110 @@ public class HeroesBackendApplicationTests {
         return mvc.perform(get(BASE_URL + "?name=" + term).accept(MediaType.APPLICATION_JSON));
     }
 
+    private ResultActions invokeSuggestHeroes(String prefix, Integer limit, boolean typos) throws Exception {
+        MockHttpServletRequestBuilder request = get(BASE_URL + "suggest").param("prefix", prefix)
+                .param("typos", Boolean.toString(typos))
+                .accept(MediaType.APPLICATION_JSON);
+        if (limit != null) {
+            request.param("limit", limit.toString());
+        }
+        return mvc.perform(request);
+    }
+
+    ResultActions invokeHeroExists(String name) throws Exception {
+        return mvc.perform(get(BASE_URL + "exists").param("name", name)
+                .accept(MediaType.APPLICATION_JSON));
+    }
+
     private ResultActions invokeGetHero(Long id) throws Exception {
         return mvc.perform(get(BASE_URL + id).accept(MediaType.APPLICATION_JSON));
     }
 
-    private ResultActions invokeCreateHero(byte[] heroJson) throws Exception {
+    ResultActions invokeCreateHero(byte[] heroJson) throws Exception {
         return mvc.perform(post(BASE_URL).content(heroJson).contentType(MediaType.APPLICATION_JSON)
                 .accept(MediaType.APPLICATION_JSON));
     }
 
+    private ResultActions invokeExportHeroes(MediaType accept) throws Exception {
+        MvcResult result = mvc.perform(get(BASE_URL + "export").accept(accept))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+    }
+
+    /**
+     * A subscription to hero changes over a real connection, as MockMvc cannot write without
+     * blocking. Events are read into a buffer as they arrive.
+     */
+    private final class Changes implements AutoCloseable {
+
+        private final StringBuffer events = new StringBuffer();
+        private final InputStream body;
+
+        Changes(String lastEventId) throws Exception {
+            HttpRequest.Builder subscribe = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/heroes/changes"))
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .header("Accept", MediaType.TEXT_EVENT_STREAM_VALUE);
+            if (lastEventId != null) {
+                subscribe.header("Last-Event-ID", lastEventId);
+            }
+            HttpResponse<InputStream> response = HttpClient.newHttpClient()
+                    .send(subscribe.build(), HttpResponse.BodyHandlers.ofInputStream());
+            assertThat(response.statusCode()).isEqualTo(200);
+            body = response.body();
+            Thread reader = new Thread(() -> {
+                char[] chars = new char[8192];
+                try (Reader in = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+                    int read;
+                    while ((read = in.read(chars)) >= 0) {
+                        events.append(chars, 0, read);
+                    }
+                } catch (IOException e) {
+                    // Closed.
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * @return the events sent so far, once one of the given type has been
+     */
+    private String awaitEvent(Changes changes, String type) throws Exception {
+        // The whole event, up to the blank line ending it, not only its first lines
+        Pattern event = Pattern.compile("event:" + type + "[^\n]*\n(?:[^\n]+\n)*\n");
+        long deadline = System.currentTimeMillis() + 5000;
+        String events = changes.events.toString();
+        while (!event.matcher(events).find() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            events = changes.events.toString();
+        }
+        assertThat(events).containsPattern(event);
+        return events;
+    }
+
     private ResultActions invokeUpdateHero(Long id, byte[] heroJson) throws Exception {
         return mvc.perform(
                 put(BASE_URL + id).content(heroJson).contentType(MediaType.APPLICATION_JSON)
                         .accept(MediaType.APPLICATION_JSON));
     }
 
+    private long connections(String pool) {
+        return meterRegistry.get("hikaricp.connections.usage").tag("pool", pool).timer().count();
+    }
+
+    private ResultActions invokePatchHero(Long id, String patchJson) throws Exception {
+        return mvc.perform(
+                patch(BASE_URL + id).content(patchJson).contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON));
+    }
+
     private ResultActions invokeDeleteHero(Long id) throws Exception {
         return mvc.perform(delete(BASE_URL + id));
     }
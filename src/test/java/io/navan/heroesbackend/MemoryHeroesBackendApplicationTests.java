@@ -0,0 +1,237 @@
+package io.navan.heroesbackend;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The memory profile keeps the contract of the servlet one: every test of
+ * {@link HeroesBackendApplicationTests} is run against it too, with the hero table written behind.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles({ "test", "memory" })
+public class MemoryHeroesBackendApplicationTests extends HeroesBackendApplicationTests {
+
+    private static final String BASE_URL = "/heroes/";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private MemoryHeroRepository heroRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Write the last test's heroes behind before the hero table is reset under the repository,
+     * so none of them land after it.
+     */
+    @BeforeEach
+    @Override
+    public void initTests() {
+        heroRepository.flush();
+        super.initTests();
+    }
+
+    @Test
+    public void shouldCreateGetUpdateAndDeleteSuperhero() throws Exception {
+        Hero hero = mapper.readValue(invokeCreateHero(new Hero("Company Man"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsByteArray(), Hero.class);
+        invokeCreateHero(new Hero("Company Man"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+
+        String etag = mvc.perform(get(BASE_URL + hero.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Company Man")))
+                .andReturn().getResponse().getHeader("ETag");
+        String listEtag = mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", etag)
+                .content(mapper.writeValueAsBytes(new Hero("Company Woman")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", etag)
+                .content(mapper.writeValueAsBytes(new Hero("Company Person")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+        // The list has changed, though the hero table may not have yet. Superman, inserted into
+        // the table, has an id from a later block of hero_seq than the repository's.
+        mvc.perform(get(BASE_URL).header("If-None-Match", listEtag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("Superman", "Company Woman")));
+        mvc.perform(get(BASE_URL + "?name=woman").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[*].name", contains("Company Woman")));
+
+        mvc.perform(delete(BASE_URL + hero.getId()))
+                .andExpect(status().isNoContent());
+        mvc.perform(get(BASE_URL + hero.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+        mvc.perform(delete(BASE_URL + hero.getId()))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * Writes should reach the hero table as they were made, pages included.
+     */
+    @Test
+    public void shouldWriteSuperheroesBehind() throws Exception {
+        List<Hero> heroes = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            heroes.add(new Hero("Hero " + i));
+        }
+        mvc.perform(post(BASE_URL + "batch")
+                .content(mapper.writeValueAsBytes(heroes))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        List<Long> ids = new ArrayList<>();
+        heroRepository.findAll().forEach(hero -> ids.add(hero.getId()));
+        heroRepository.updateName(ids.get(1), "Renamed");
+        heroRepository.deleteOneById(ids.get(2));
+
+        mvc.perform(get(BASE_URL + "?limit=5&after=" + ids.get(2)).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", contains(ids.get(3).intValue(), ids.get(4).intValue(),
+                        ids.get(5).intValue(), ids.get(6).intValue(), ids.get(7).intValue())))
+                .andExpect(header().exists("Link"));
+
+        heroRepository.flush();
+        assertThat(table()).isEqualTo(memory());
+        assertThat(jdbcTemplate.queryForObject("select name from hero where id = ?", String.class, ids.get(1)))
+                .isEqualTo("Renamed");
+    }
+
+    /**
+     * Names taken and let go concurrently should reach the hero table in an order that never
+     * breaks its unique constraint.
+     */
+    @Test
+    public void shouldKeepSuperheroNamesUniqueWhenWrittenBehind() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 1; i <= 8; i++) {
+            ids.add(heroRepository.save(new Hero("Hero " + i)).getId());
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        heroRepository.updateName(ids.get(random.nextInt(ids.size())), "Name " + random.nextInt(10));
+                    } catch (DuplicateKeyException e) {
+                        // Taken by another hero
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        heroRepository.flush();
+        assertThat(table()).isEqualTo(memory());
+    }
+
+    /**
+     * As for the JPA repository, but with the hero created written behind before the hero table
+     * is changed under it: a delete made around the repository cannot see a hero it has queued.
+     */
+    @Test
+    @Override
+    public void shouldKeepSuperheroNamesInStepWithHeroTable() throws Exception {
+        jdbcTemplate.execute("insert into Hero(name) values ('Cat Lady')");
+        invokeHeroExists("Cat Lady").andExpect(content().string("true"));
+        invokeCreateHero(toJson(new Hero("Cat Lady")))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+
+        jdbcTemplate.execute("update Hero set name = 'Dog Lady' where name = 'Cat Lady'");
+        invokeHeroExists("Cat Lady").andExpect(content().string("false"));
+        invokeHeroExists("Dog Lady").andExpect(content().string("true"));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.execute("delete from Hero where name = 'Dog Lady'");
+            jdbcTemplate.execute("insert into Hero(name) values ('Cat Lady')");
+            status.setRollbackOnly();
+        });
+        invokeHeroExists("Dog Lady").andExpect(content().string("true"));
+        invokeHeroExists("Cat Lady").andExpect(content().string("false"));
+
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+        heroRepository.flush();
+        jdbcTemplate.execute("delete from Hero where name in ('Dog Lady', 'Company Man')");
+        invokeHeroExists("Dog Lady").andExpect(content().string("false"));
+        invokeCreateHero(toJson(new Hero("Company Man"))).andExpect(status().isCreated());
+    }
+
+    @Test
+    @Override
+    @Disabled("Hibernate's caches are not in front of the memory repository")
+    public void shouldInvalidateSecondLevelCache() {
+    }
+
+    @Test
+    @Override
+    @Disabled("The memory repository is not a Spring Data repository, so its calls are not timed as one")
+    public void shouldPublishSuperheroMetrics() {
+    }
+
+    @Test
+    @Override
+    @Disabled("The memory repository reads no pool, primary or replica")
+    public void shouldRouteSuperheroReadsToReplica() {
+    }
+
+    private List<String> memory() {
+        List<String> heroes = new ArrayList<>();
+        heroRepository.findAll().forEach(hero ->
+                heroes.add(hero.getId() + " " + hero.getName() + " " + hero.getVersion()));
+        return heroes;
+    }
+
+    private List<String> table() {
+        return jdbcTemplate.queryForList(
+                "select id || ' ' || name || ' ' || version from hero order by id", String.class);
+    }
+
+    private ResultActions invokeCreateHero(Hero hero) throws Exception {
+        return mvc.perform(post(BASE_URL).content(mapper.writeValueAsBytes(hero))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON));
+    }
+}
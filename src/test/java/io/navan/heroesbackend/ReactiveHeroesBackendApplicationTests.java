@@ -0,0 +1,149 @@
+package io.navan.heroesbackend;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * The reactive profile keeps the contract of the servlet one tested in
+ * {@link HeroesBackendApplicationTests}. The web application type is repeated here because
+ * the test context picks its type before the profile's properties are read.
+ */
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+@ActiveProfiles({ "test", "reactive" })
+public class ReactiveHeroesBackendApplicationTests {
+
+    private static final String BASE_URL = "/heroes/";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private WebTestClient client;
+
+    /**
+     * Start with one row in the Hero table prior to each test.
+     */
+    @BeforeEach
+    public void initTests() {
+        jdbcTemplate.execute("delete from hero; insert into Hero(name) values ('Superman');");
+    }
+
+    @Test
+    public void shouldCreateGetUpdateAndDeleteSuperhero() throws Exception {
+        Hero hero = client.post().uri(BASE_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Hero("Company Man"))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().value("Location",
+                        location -> assertThat(location).matches(".*/heroes/\\d+"))
+                .expectBody(Hero.class).returnResult().getResponseBody();
+        assertThat(hero.getName()).isEqualTo("Company Man");
+
+        String etag = client.get().uri(BASE_URL + hero.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.name").isEqualTo("Company Man")
+                .returnResult().getResponseHeaders().getETag();
+        client.get().uri(BASE_URL + hero.getId())
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isNotModified();
+
+        client.put().uri(BASE_URL + hero.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("If-Match", etag)
+                .bodyValue(new Hero("Company Woman"))
+                .exchange()
+                .expectStatus().isNoContent();
+        client.put().uri(BASE_URL + hero.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("If-Match", etag)
+                .bodyValue(new Hero("Company Person"))
+                .exchange()
+                .expectStatus().isEqualTo(412)
+                .expectBody().jsonPath("$.errors[0].property").isEqualTo("version");
+        client.put().uri(BASE_URL + hero.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Hero("Company Person"))
+                .exchange()
+                .expectStatus().isNoContent();
+
+        client.delete().uri(BASE_URL + hero.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+        client.delete().uri(BASE_URL + hero.getId())
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody().jsonPath("$.errors[0].message").isEqualTo("Hero not found");
+        client.put().uri(BASE_URL + hero.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Hero("Company Person"))
+                .exchange()
+                .expectStatus().isNotFound();
+        client.put().uri(BASE_URL + hero.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("If-Match", etag)
+                .bodyValue(new Hero("Company Person"))
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void shouldBadRequestBadOrDuplicateSuperhero() throws Exception {
+        client.post().uri(BASE_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Hero("Superman"))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.errors[0].entity").isEqualTo(Hero.class.getName())
+                .jsonPath("$.errors[0].property").isEqualTo("name")
+                .jsonPath("$.errors[0].message").isEqualTo("Already Exists");
+        client.post().uri(BASE_URL)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Hero("123456789012345678901"))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.message").isEqualTo("Validation Errors")
+                .jsonPath("$.errors[0].property").isEqualTo("name");
+    }
+
+    @Test
+    public void shouldStreamSuperheroesAsNdjson() throws Exception {
+        jdbcTemplate.update("insert into hero(name) select 'Hero ' || x from system_range(1, 1000)");
+        Flux<Hero> heroes = client.get().uri(BASE_URL)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Hero.class).getResponseBody();
+        List<Hero> first = heroes.take(10).collectList().block();
+        assertThat(first).hasSize(10);
+
+        client.get().uri(BASE_URL + "?name=uperm")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$[0].name").isEqualTo("Superman");
+        client.get().uri(BASE_URL + "?limit=10")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value("Link", link -> assertThat(link).contains("rel=\"next\""))
+                .expectBody().jsonPath("$.length()").isEqualTo(10);
+    }
+}
@@ -0,0 +1,144 @@
+package io.navan.heroesbackend;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.http.Cookie;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A replica that lags: a database of its own, given the primary's heroes only when a test
+ * says so, where the H2 mirror would be in step at all times. Clients should still read their
+ * own writes, whatever other clients read from the replica in between, however it is cached.
+ */
+@SpringBootTest(properties = { "heroes.datasource.replica.url=" + ReplicaLagHeroesBackendApplicationTests.REPLICA,
+        "heroes.datasource.replica.username=sa", "heroes.datasource.replica.stickiness=1s" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class ReplicaLagHeroesBackendApplicationTests {
+
+    static final String REPLICA = "jdbc:h2:mem:lagging-replica;DB_CLOSE_DELAY=-1";
+
+    private static final String BASE_URL = "/heroes/";
+
+    private static final long STICKINESS_MILLIS = 1000;
+
+    private static JdbcTemplate replica;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    private long id;
+
+    /**
+     * The replica needs its tables before the application starts reading from it.
+     */
+    @BeforeAll
+    public static void createReplica() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(REPLICA, "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        replica = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Start with Superman on both databases, nothing cached, and no write the replica could
+     * be missing.
+     */
+    @BeforeEach
+    public void initTests() throws InterruptedException {
+        jdbcTemplate.execute("delete from hero; insert into Hero(name) values ('Superman')");
+        replicate();
+        id = jdbcTemplate.queryForObject("select id from hero", Long.class);
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        entityManagerFactory.getCache().evictAll();
+        Thread.sleep(STICKINESS_MILLIS);
+    }
+
+    @Test
+    public void shouldReadOwnWritesThroughCachesWhileReplicaLags() throws Exception {
+        // Cached while the replica is in step
+        invokeGetHero(id, null).andExpect(jsonPath("$.name", is("Superman")));
+        invokeSearchHeroes("super", null).andExpect(jsonPath("$[*].name", contains("Superman")));
+
+        Cookie wrote = mvc.perform(put(BASE_URL + id)
+                .content(mapper.writeValueAsBytes(new Hero("Company Man")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getCookie("heroes-primary");
+
+        // Other clients read the replica, which has yet to see the rename
+        invokeGetHero(id, null).andExpect(jsonPath("$.name", is("Superman")));
+        invokeSearchHeroes("super", null).andExpect(jsonPath("$[*].name", contains("Superman")));
+
+        invokeGetHero(id, wrote).andExpect(jsonPath("$.name", is("Company Man")));
+        invokeSearchHeroes("super", wrote).andExpect(jsonPath("$", hasSize(0)));
+        invokeSearchHeroes("company", wrote).andExpect(jsonPath("$[*].name", contains("Company Man")));
+
+        // Once the replica has caught up and the stickiness is over, everyone sees the rename
+        replicate();
+        Thread.sleep(STICKINESS_MILLIS);
+        invokeGetHero(id, null).andExpect(jsonPath("$.name", is("Company Man")));
+        invokeSearchHeroes("super", null).andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    /**
+     * Give the replica what the primary has.
+     */
+    private void replicate() {
+        replica.execute("delete from hero");
+        jdbcTemplate.query("select id, name, version from hero", rs -> {
+            replica.update("insert into hero(id, name, version) values (?, ?, ?)",
+                    rs.getLong(1), rs.getString(2), rs.getLong(3));
+        });
+    }
+
+    private ResultActions invokeGetHero(long id, Cookie cookie) throws Exception {
+        return mvc.perform(withCookie(get(BASE_URL + id), cookie).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+    }
+
+    private ResultActions invokeSearchHeroes(String name, Cookie cookie) throws Exception {
+        return mvc.perform(withCookie(get(BASE_URL).param("name", name), cookie)
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+    }
+
+    private static MockHttpServletRequestBuilder withCookie(MockHttpServletRequestBuilder request, Cookie cookie) {
+        return cookie == null ? request : request.cookie(cookie);
+    }
+}
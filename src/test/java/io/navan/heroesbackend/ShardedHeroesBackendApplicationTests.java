@@ -0,0 +1,242 @@
+package io.navan.heroesbackend;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.navan.system.Shards;
+
+/**
+ * The sharded profile keeps the contract of the servlet one tested in
+ * {@link HeroesBackendApplicationTests}, with heroes spread over four local H2 shards.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({ "test", "sharded" })
+public class ShardedHeroesBackendApplicationTests {
+
+    private static final String BASE_URL = "/heroes/";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private HeroRepository heroRepository;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Start with one hero prior to each test. Written through the repository, as a raw insert
+     * would reach either the directory or a shard, not both.
+     */
+    @BeforeEach
+    public void initTests() {
+        heroRepository.deleteAll();
+        heroRepository.save(new Hero("Superman"));
+    }
+
+    @Test
+    public void shouldCreateGetUpdateAndDeleteSuperhero() throws Exception {
+        Hero hero = mapper.readValue(invokeCreateHero(new Hero("Company Man"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsByteArray(), Hero.class);
+
+        String etag = mvc.perform(get(BASE_URL + hero.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is("Company Man")))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", etag)
+                .content(mapper.writeValueAsBytes(new Hero("Company Woman")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mvc.perform(put(BASE_URL + hero.getId()).header("If-Match", etag)
+                .content(mapper.writeValueAsBytes(new Hero("Company Person")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+        mvc.perform(get(BASE_URL + "?name=woman").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[*].name", contains("Company Woman")));
+
+        mvc.perform(delete(BASE_URL + hero.getId()))
+                .andExpect(status().isNoContent());
+        mvc.perform(get(BASE_URL + hero.getId()).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+        mvc.perform(delete(BASE_URL + hero.getId()))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * A name is taken once across all the shards, whichever shard the heroes having it are in.
+     */
+    @Test
+    public void shouldBadRequestDuplicateSuperheroAcrossShards() throws Exception {
+        List<Long> ids = createHeroes(8);
+        invokeCreateHero(new Hero("Hero 1"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+        // Every other hero lands in some other shard than Hero 1's.
+        for (Long id : ids.subList(1, ids.size())) {
+            if (shards.shardOf(id) != shards.shardOf(ids.get(0))) {
+                mvc.perform(put(BASE_URL + id)
+                        .content(mapper.writeValueAsBytes(new Hero("Hero 1")))
+                        .contentType(MediaType.APPLICATION_JSON))
+                        .andExpect(status().isBadRequest())
+                        .andExpect(jsonPath("$.errors[0].message", is("Already Exists")));
+            }
+        }
+        mvc.perform(get(BASE_URL + "?name=hero 1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[*].name", contains("Hero 1")));
+    }
+
+    /**
+     * Heroes should land in more than one shard, yet list, search and page as one table.
+     */
+    @Test
+    public void shouldSpreadSuperheroesOverShards() throws Exception {
+        List<Long> ids = createHeroes(20);
+        Map<Integer, List<Long>> byShard = shards.byShard(ids, Long::longValue);
+        assertThat(byShard.size()).isGreaterThan(1);
+
+        mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(21)))
+                .andExpect(jsonPath("$[1].id", is(ids.get(0).intValue())))
+                .andExpect(jsonPath("$[20].id", is(ids.get(19).intValue())));
+        mvc.perform(get(BASE_URL + "?name=hero 1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(11)));
+
+        mvc.perform(get(BASE_URL + "?limit=5&after=" + ids.get(4)).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", contains(ids.get(5).intValue(), ids.get(6).intValue(),
+                        ids.get(7).intValue(), ids.get(8).intValue(), ids.get(9).intValue())))
+                .andExpect(header().exists("Link"));
+    }
+
+    /**
+     * The application's own database should keep only the directory of names, and the indexes,
+     * stream and list ETag should follow the heroes in the shards.
+     */
+    @Test
+    public void shouldKeepSuperheroesInShardsOnly() throws Exception {
+        String etag = mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader("ETag");
+        List<Long> ids = createHeroes(8);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from hero", Long.class)).isZero();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from hero_directory", Long.class)).isEqualTo(9);
+        assertThat(shards.byShard(ids, Long::longValue).size()).isGreaterThan(1);
+
+        mvc.perform(get(BASE_URL).accept(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("ETag", not(etag)));
+        mvc.perform(get(BASE_URL + "exists").param("name", "Hero 8").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("true"));
+        mvc.perform(get(BASE_URL + "suggest").param("prefix", "hero").accept(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(8)));
+        MvcResult result = mvc.perform(get(BASE_URL + "?stream=true").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(9)))
+                .andExpect(jsonPath("$[1].id", is(ids.get(0).intValue())))
+                .andExpect(jsonPath("$[8].id", is(ids.get(7).intValue())));
+    }
+
+    /**
+     * Shard writes commit on their own, so a transaction that fails after making some should
+     * have them undone, and the name index with them.
+     */
+    @Test
+    public void shouldUndoShardWritesOfFailedTransaction() throws Exception {
+        List<Long> ids = createHeroes(2);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        assertThrows(DuplicateKeyException.class, () -> transaction.executeWithoutResult(status -> {
+            heroRepository.save(new Hero("Company Man"));
+            heroRepository.updateName(ids.get(0), "Company Woman");
+            heroRepository.deleteOneById(ids.get(1));
+            heroRepository.save(new Hero("Superman"));
+        }));
+
+        assertThat(heroRepository.findByNameIn(List.of("Company Man", "Company Woman"))).isEmpty();
+        assertThat(heroRepository.findById(ids.get(0)).map(Hero::getName)).contains("Hero 1");
+        assertThat(heroRepository.findById(ids.get(1)).map(Hero::getName)).contains("Hero 2");
+        assertThat(heroRepository.count()).isEqualTo(3);
+        mvc.perform(get(BASE_URL + "exists").param("name", "Company Man").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("false"));
+        mvc.perform(get(BASE_URL + "exists").param("name", "Hero 2").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("true"));
+        mvc.perform(put(BASE_URL + ids.get(0))
+                .content(mapper.writeValueAsBytes(new Hero("Company Woman")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+    }
+
+    /**
+     * Create heroes "Hero 1", "Hero 2" and so on in one batch.
+     *
+     * @return their ids, in ascending order
+     */
+    private List<Long> createHeroes(int count) throws Exception {
+        List<Hero> heroes = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            heroes.add(new Hero("Hero " + i));
+        }
+        mvc.perform(post(BASE_URL + "batch")
+                .content(mapper.writeValueAsBytes(heroes))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        List<Long> ids = new ArrayList<>();
+        heroRepository.findByNameIn(heroes.stream().map(Hero::getName).toList())
+                .forEach(hero -> ids.add(hero.getId()));
+        ids.sort(null);
+        return ids;
+    }
+
+    private ResultActions invokeCreateHero(Hero hero) throws Exception {
+        return mvc.perform(post(BASE_URL).content(mapper.writeValueAsBytes(hero))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON));
+    }
+}
@@ -0,0 +1,51 @@
+package io.navan.system;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LongKeyedMapTests {
+
+    /**
+     * Should agree with a HashMap through puts, removes and the table rebuilds they cause.
+     */
+    @Test
+    public void shouldMatchHashMap() {
+        LongKeyedMap<String> map = new LongKeyedMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key), is(expected.remove(key)));
+            } else {
+                assertThat(map.put(key, "v" + i), is(expected.put(key, "v" + i)));
+            }
+        }
+        assertThat(map.size(), is(expected.size()));
+        for (long key = 0; key < 5000; key++) {
+            assertThat(map.get(key), is(expected.get(key)));
+        }
+        Map<Long, String> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertThat(visited, is(expected));
+    }
+
+    @Test
+    public void shouldClear() {
+        LongKeyedMap<String> map = new LongKeyedMap<>(1);
+        map.put(Long.MIN_VALUE, "min");
+        map.put(0, "zero");
+        map.put(Long.MAX_VALUE, "max");
+        assertThat(map.get(Long.MIN_VALUE), is("min"));
+        map.clear(() -> {});
+        assertThat(map.size(), is(0));
+        assertThat(map.get(0), nullValue());
+    }
+}
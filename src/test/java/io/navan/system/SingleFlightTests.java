@@ -0,0 +1,142 @@
+package io.navan.system;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final WriteTracker writes = new WriteTracker();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch calling = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Callers arriving while a call is in flight should share its result.
+     */
+    @Test
+    public void shouldCoalesceConcurrentCalls() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test", writes, Duration.ofSeconds(10), meterRegistry);
+        List<AtomicReference<Integer>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(caller(flight, results));
+        calling.await();
+        for (int i = 0; i < 5; i++) {
+            threads.add(caller(flight, results));
+        }
+        awaitWaiting(threads.subList(1, threads.size()));
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(calls.get(), is(1));
+        for (AtomicReference<Integer> result : results) {
+            assertThat(result.get(), is(1));
+        }
+        assertThat(count("led"), is(1.0));
+        assertThat(count("coalesced"), is(5.0));
+    }
+
+    /**
+     * A caller should not share a call started before a write that has finished since.
+     */
+    @Test
+    public void shouldNotCoalesceAcrossWrites() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test", writes, Duration.ofSeconds(10), meterRegistry);
+        List<AtomicReference<Integer>> results = new ArrayList<>();
+        Thread leader = caller(flight, results);
+        calling.await();
+        writes.doFilter(new MockHttpServletRequest("PUT", "/heroes/1"), new MockHttpServletResponse(),
+                (request, response) -> {});
+
+        assertThat(flight.call("key", calls::incrementAndGet), is(2));
+        release.countDown();
+        leader.join();
+        assertThat(results.get(0).get(), is(1));
+        assertThat(count("led"), is(2.0));
+        assertThat(count("coalesced"), is(0.0));
+    }
+
+    /**
+     * A call started while a write is in progress should not be shared at all.
+     */
+    @Test
+    public void shouldNotCoalesceDuringWrites() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test", writes, Duration.ofSeconds(10), meterRegistry);
+        List<AtomicReference<Integer>> results = new ArrayList<>();
+        writes.doFilter(new MockHttpServletRequest("DELETE", "/heroes/1"), new MockHttpServletResponse(),
+                (request, response) -> {
+                    try {
+                        caller(flight, results);
+                        calling.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+
+        assertThat(flight.call("key", calls::incrementAndGet), is(2));
+        release.countDown();
+        assertThat(count("coalesced"), is(0.0));
+    }
+
+    /**
+     * Callers should stop waiting for a call taking longer than the timeout and make their own.
+     */
+    @Test
+    public void shouldCallAgainAfterTimeout() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test", writes, Duration.ofMillis(50), meterRegistry);
+        List<AtomicReference<Integer>> results = new ArrayList<>();
+        Thread leader = caller(flight, results);
+        calling.await();
+
+        assertThat(flight.call("key", calls::incrementAndGet), is(2));
+        release.countDown();
+        leader.join();
+        assertThat(count("timeout"), is(1.0));
+    }
+
+    /**
+     * Start a thread calling for "key". The first call made waits for release.
+     */
+    private Thread caller(SingleFlight<String, Integer> flight, List<AtomicReference<Integer>> results) {
+        AtomicReference<Integer> result = new AtomicReference<>();
+        results.add(result);
+        Thread thread = new Thread(() -> result.set(flight.call("key", () -> {
+            int call = calls.incrementAndGet();
+            calling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return call;
+        })));
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.get(SingleFlight.CALLS).tag("outcome", outcome).counter().count();
+    }
+}